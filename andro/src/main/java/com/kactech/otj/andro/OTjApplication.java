@@ -17,7 +17,7 @@ import android.os.Environment;
 import android.provider.ContactsContract;
 import android.util.Log;
 
-import com.kactech.otj.Client;
+import com.kactech.otj.BufferedPublisher;
 import com.kactech.otj.EClient;
 import com.kactech.otj.MSG;
 import com.kactech.otj.Utils;
@@ -190,8 +190,18 @@ public class OTjApplication extends Application {
 					ExamplesUtils.findServer("OT 8coin"));
 			c.setAssetType(ExamplesUtils.findAsset("silver").assetID);
 			c.init();
-			c.getClient().addFilter((Client.Filter) transfersFilter, MSG.ProcessInboxResp.class, 0);
-			c.getClient().addFilter((Client.Filter) transfersFilter, MSG.GetInboxResp.class, 0);
+			transfersFilter.getPublisher().subscribe(new BufferedPublisher.Consumer<IncomingTransfrerFilter.Tx>() {
+				@Override
+				public void accept(IncomingTransfrerFilter.Tx tx) {
+					Transaction trans = new Transaction(null, tx.date, tx.account, tx.amount);
+					if (txStore.insert(trans)) {
+						Log.i("beta", "inc 	" + trans);
+						transactions.add(0, trans);
+					}
+				}
+			});
+			c.getClient().addHook(transfersFilter, MSG.ProcessInboxResp.class);
+			c.getClient().addHook(transfersFilter, MSG.GetInboxResp.class);
 			client = c;
 		}
 		client.getAccount();
@@ -242,13 +252,6 @@ public class OTjApplication extends Application {
 	public void refreshClient() {
 		client.processInbox();
 		client.getAccount();
-		for (IncomingTransfrerFilter.Tx tx : transfersFilter.getAndClearAcknowledged()) {
-			Transaction trans = new Transaction(null, tx.date, tx.account, tx.amount);
-			if (txStore.insert(trans)) {
-				Log.i("beta", "inc 	" + trans);
-				transactions.add(0, trans);
-			}
-		}
 	}
 
 	public String send(String account, Long amount) {
@@ -262,7 +265,6 @@ public class OTjApplication extends Application {
 				if (txStore.insert(tx)) {
 					Log.i("beta", "added " + tx);
 					transactions.add(0, tx);
-					client.getAccount();
 				}
 				//Toast.makeText(this, "sent " + amount, 500).show();
 				Log.e("info", "sent " + amount);
@@ -276,8 +278,8 @@ public class OTjApplication extends Application {
 	}
 
 	public long getBalance() {
-		return client == null ? 0 : client.getCachedAccount() == null ? 0 : client.getCachedAccount().getBalance()
-				.getAmount();
+		Long balance = client == null ? null : client.getBalance();// local mirror
+		return balance == null ? 0 : balance;
 	}
 
 	public void reloadNym() {
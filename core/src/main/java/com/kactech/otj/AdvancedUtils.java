@@ -64,21 +64,28 @@ import com.kactech.otj.model.BasicConnectionInfo;
 
 public class AdvancedUtils {
 	public static BasicConnectionInfo toConnectionInfo(OT.NotaryProviderContract notary) {
+		String id = Utils.samy62(Utils.bytes(notary.getSigned().trim(), Utils.UTF8));
+		BasicConnectionInfo cached = ParseCache.connectionInfos.get(id);
+		if (cached != null)
+			return cached;
 		String name = notary.getEntity().getShortname();
 		String endpoint = "tcp://" + notary.getNotaryServer().getHostname() + ':' + notary.getNotaryServer().getPort();
-		String id = Utils.samy62(Utils.bytes(notary.getSigned().trim(), Utils.UTF8));
-		PublicKey publicKey = null;
+		PublicKey publicKey = null, signingKey = null;
 		String nymID = null;
 		if (notary.getSigner() != null) {
 			nymID = notary.getSigner().getNymID();
 			for (OT.MasterCredential c : notary.getSigner().getCredentials().values()) {
 				if (c instanceof OT.KeyCredential) {
 					OT.PublicContents pub = ((OT.KeyCredential) c).getMasterSigned().getPublicContents();
-					String v = null;
+					String v = null, s = null;
 					for (OT.KeyValue pubi : pub.getPublicInfos())
 						if (pubi.getKey().equals("E"))
 							v = pubi.getValue();
-					publicKey = Utils.fromRawPublicInfo(v, false);
+						else if (pubi.getKey().equals("S"))
+							s = pubi.getValue();
+					publicKey = ParseCache.publicKey(v, false);
+					if (s != null)
+						signingKey = ParseCache.publicKey(s, false);
 					break;
 				}
 			}
@@ -93,7 +100,9 @@ public class AdvancedUtils {
 				}
 			}
 		}
-		return new BasicConnectionInfo(id, publicKey, endpoint, nymID, name);
+		BasicConnectionInfo info = new BasicConnectionInfo(id, publicKey, endpoint, nymID, name, signingKey);
+		ParseCache.connectionInfos.put(id, info);
+		return info;
 	}
 
 	public static char[] getMasterPassword(OT.SymmetricKey cachedKey, String password) {
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Box receipts never change for given (nym/account, box, transaction#), so there's no need to download them again
+ * every time the box is fetched. Signed server responses are kept in bounded in-memory LRU and (optionally) on disk,
+ * one per file, and parsed on every get so callers never share instances. The receipt hash is computed from the
+ * receipt itself; if the box record's receiptHash is known it has to match it.
+ */
+public class BoxReceiptCache {
+	static final Logger logger = LoggerFactory.getLogger(BoxReceiptCache.class);
+	public static int DEFAULT_MEMORY_SIZE = 256;
+
+	static class Entry {
+		String receiptHash;
+		String signed;
+	}
+
+	File dir;
+	final Map<String, Entry> memory;
+	final AtomicLong hashMismatches = new AtomicLong();
+
+	public BoxReceiptCache() {
+		this(null, DEFAULT_MEMORY_SIZE);
+	}
+
+	/**
+	 * @param dir
+	 *            disk tier directory, null for memory only
+	 * @param memorySize
+	 *            max receipts held in memory
+	 */
+	public BoxReceiptCache(File dir, final int memorySize) {
+		this.dir = dir;
+		this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > memorySize;
+			}
+		};
+	}
+
+	static String key(String ownerID, OT.Ledger.Type boxType, long transactionNum) {
+		return ownerID + '/' + boxType + '/' + transactionNum;
+	}
+
+	File file(String ownerID, OT.Ledger.Type boxType, long transactionNum) {
+		return Utils.file(dir.getPath(), ownerID, boxType.toString(), transactionNum + ".txt");
+	}
+
+	/**
+	 * @param receiptHash
+	 *            expected hash from box record, null if not known
+	 * @return cached receipt or null
+	 */
+	public MSG.GetBoxReceiptResp get(String ownerID, OT.Ledger.Type boxType, long transactionNum,
+			String receiptHash) {
+		String key = key(ownerID, boxType, transactionNum);
+		Entry e;
+		synchronized (memory) {
+			e = memory.get(key);
+		}
+		if (e == null && dir != null) {
+			e = load(file(ownerID, boxType, transactionNum));
+			if (e != null)
+				synchronized (memory) {
+					memory.put(key, e);
+				}
+		}
+		if (e == null)
+			return null;
+		if (receiptHash != null && !receiptHash.equals(e.receiptHash)) {
+			hashMismatches.incrementAndGet();
+			logger.warn("receipt hash mismatch for {}, dropping cached receipt", key);
+			remove(ownerID, boxType, transactionNum);
+			return null;
+		}
+		try {
+			return parse(e.signed);
+		} catch (Exception ex) {
+			logger.warn("parsing cached receipt {}: {}", key, ex.toString());
+			remove(ownerID, boxType, transactionNum);
+			return null;
+		}
+	}
+
+	/**
+	 * @param receiptHash
+	 *            expected hash from box record, receipt not matching it isn't cached; null if not known
+	 */
+	public void put(String ownerID, OT.Ledger.Type boxType, long transactionNum, String receiptHash,
+			MSG.Message response) {
+		MSG.GetBoxReceiptResp resp = response.getGetBoxReceiptResp();
+		if (resp == null || resp.getSuccess() == null || !resp.getSuccess() || resp.getBoxReceipt() == null
+				|| response.getSigned() == null)
+			return;
+		Entry e = new Entry();
+		e.receiptHash = receiptHash(resp.getBoxReceipt());
+		e.signed = response.getSigned();
+		if (receiptHash != null && !receiptHash.equals(e.receiptHash)) {
+			hashMismatches.incrementAndGet();
+			logger.warn("receipt {} hashes to {}, box record says {}, not cached", new Object[] {
+					key(ownerID, boxType, transactionNum), e.receiptHash, receiptHash });
+			return;
+		}
+		synchronized (memory) {
+			memory.put(key(ownerID, boxType, transactionNum), e);
+		}
+		if (dir != null)
+			try {
+				Utils.writeDirs(file(ownerID, boxType, transactionNum), e.signed);
+			} catch (IOException ex) {
+				logger.warn("storing receipt: {}", ex.toString());
+			}
+	}
+
+	/**
+	 * hash the server puts in box record, samy of trimmed signed receipt
+	 */
+	public static String receiptHash(OT.Transaction receipt) {
+		if (receipt == null || receipt.getSigned() == null)
+			return null;
+		return receiptHash(receipt.getSigned());
+	}
+
+	/**
+	 * same digest as ID of signed contract
+	 */
+	public static String receiptHash(String signed) {
+		return Utils.samy62(Utils.bytes(signed.trim(), Utils.UTF8));
+	}
+
+	static MSG.GetBoxReceiptResp parse(String signed) {
+		MSG.Message msg = new MSG.Message();
+		msg.setSigned(signed);
+		Engines.parse(msg);
+		return msg.getGetBoxReceiptResp();
+	}
+
+	/*
+	 * receipt was accepted(or rejected), it won't be asked again
+	 */
+	public void remove(String ownerID, OT.Ledger.Type boxType, long transactionNum) {
+		synchronized (memory) {
+			memory.remove(key(ownerID, boxType, transactionNum));
+		}
+		if (dir != null)
+			file(ownerID, boxType, transactionNum).delete();
+	}
+
+	public void clear() {
+		synchronized (memory) {
+			memory.clear();
+		}
+	}
+
+	Entry load(File f) {
+		if (!f.exists())
+			return null;
+		try {
+			Entry e = new Entry();
+			e.signed = Utils.read(f);
+			MSG.GetBoxReceiptResp resp = parse(e.signed);
+			if (resp == null || resp.getBoxReceipt() == null)
+				return null;
+			e.receiptHash = receiptHash(resp.getBoxReceipt());
+			return e;
+		} catch (Exception ex) {
+			logger.warn("loading receipt {}: {}", f, ex.toString());
+			f.delete();
+			return null;
+		}
+	}
+
+	// get
+
+	/**
+	 * @return receipts refused or dropped because they didn't hash to receiptHash of their box record
+	 */
+	public long getHashMismatches() {
+		return hashMismatches.get();
+	}
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publisher with bounded buffer per subscriber. Items are delivered on executor, one at a time per subscriber and
+ * only as requested. Submit waits for room in a full buffer up to offerTimeout, then the item is dropped for that
+ * subscriber. Items submitted while nobody is subscribed are kept in backlog of the same size for the first
+ * subscriber, the oldest one is dropped when it's full. Dropped items are counted, see {@link #getDropped()}.
+ */
+public class BufferedPublisher<T> implements Flow.Publisher<T>, Closeable {
+	static final Logger logger = LoggerFactory.getLogger(BufferedPublisher.class);
+	// how long submit waits for room in buffer of a slow subscriber
+	public static long OFFER_TIMEOUT = 10 * 1000l;
+
+	static ExecutorService defaultExecutor;
+
+	static synchronized Executor defaultExecutor() {
+		if (defaultExecutor == null)
+			defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "otj-publisher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return defaultExecutor;
+	}
+
+	final Executor executor;
+	final int bufferSize;
+	final List<Sub> subscribers = new CopyOnWriteArrayList<Sub>();
+	// submitted while nobody was subscribed, guarded by this
+	final Deque<T> backlog = new ArrayDeque<T>();
+	volatile boolean closed;
+	volatile long offerTimeout = OFFER_TIMEOUT;
+	final AtomicLong submitted = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+
+	public BufferedPublisher() {
+		this(null, Flow.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param executor
+	 *            daemon cached pool shared by publishers when null
+	 */
+	public BufferedPublisher(Executor executor, int bufferSize) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("bufferSize <= 0");
+		this.executor = executor == null ? defaultExecutor() : executor;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("subscriber == null");
+		Sub s = new Sub(subscriber);
+		synchronized (this) {
+			s.buffer.addAll(backlog);
+			backlog.clear();
+			if (!closed)
+				subscribers.add(s);
+			else
+				s.complete = true;
+		}
+		s.schedule();
+	}
+
+	/**
+	 * Waits for room in buffers of all subscribers, at most offerTimeout for each. Subscriber submitting from its own
+	 * onNext doesn't wait, its buffer grows over the bound instead. With no subscribers the item goes to backlog,
+	 * dropping the oldest one when it's full.
+	 */
+	public void submit(T item) throws InterruptedException {
+		if (item == null)
+			throw new NullPointerException("item == null");
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("closed");
+			submitted.incrementAndGet();
+			if (subscribers.isEmpty()) {
+				if (backlog.size() >= bufferSize) {
+					backlog.poll();
+					if (dropped.incrementAndGet() == 1)
+						logger.warn("backlog full, nobody subscribed, dropping oldest items");
+				}
+				backlog.add(item);
+				return;
+			}
+		}
+		for (Sub s : subscribers)
+			s.put(item);
+	}
+
+	/**
+	 * subscribers get onComplete after buffered items
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Sub s : subscribers) {
+			s.complete = true;
+			s.schedule();
+		}
+		subscribers.clear();
+	}
+
+	class Sub implements Flow.Subscription, Runnable {
+		final Flow.Subscriber<? super T> subscriber;
+		// guarded by this
+		final Deque<T> buffer = new ArrayDeque<T>();
+		final AtomicLong demand = new AtomicLong();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		boolean subscribed;
+		volatile boolean complete, cancelled;
+		volatile Throwable error;
+		volatile Thread runner;
+
+		Sub(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		void put(T item) throws InterruptedException {
+			synchronized (this) {
+				// subscriber submitting from onNext mustn't wait for itself
+				long deadline = System.currentTimeMillis() + offerTimeout;
+				while (!cancelled && buffer.size() >= bufferSize && Thread.currentThread() != runner) {
+					long left = deadline - System.currentTimeMillis();
+					if (left <= 0) {
+						dropped.incrementAndGet();
+						logger.warn("subscriber {} too slow, item dropped", subscriber);
+						return;
+					}
+					wait(left);
+				}
+				if (cancelled)
+					return;
+				buffer.add(item);
+			}
+			schedule();
+		}
+
+		synchronized T poll() {
+			T item = buffer.poll();
+			if (item != null)
+				notifyAll();
+			return item;
+		}
+
+		synchronized boolean isEmpty() {
+			return buffer.isEmpty();
+		}
+
+		synchronized void clear() {
+			buffer.clear();
+			notifyAll();
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					logger.warn("executor rejected delivery to {}", subscriber);
+				}
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0)
+				error = new IllegalArgumentException("non-positive request: " + n);
+			else
+				for (;;) {
+					long d = demand.get();
+					long nd = d + n < 0 ? Long.MAX_VALUE : d + n;
+					if (demand.compareAndSet(d, nd))
+						break;
+				}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscribers.remove(this);
+			clear();
+		}
+
+		@Override
+		public void run() {
+			runner = Thread.currentThread();
+			try {
+				if (!subscribed) {
+					subscribed = true;
+					subscriber.onSubscribe(this);
+				}
+				T item;
+				while (!cancelled && error == null && demand.get() > 0 && (item = poll()) != null) {
+					demand.decrementAndGet();
+					subscriber.onNext(item);
+				}
+				if (cancelled)
+					clear();
+				else if (error != null) {
+					cancel();
+					subscriber.onError(error);
+				} else if (complete && isEmpty()) {
+					cancelled = true;
+					subscriber.onComplete();
+				}
+			} catch (Throwable e) {
+				logger.warn("subscriber " + subscriber + " failed, cancelled", e);
+				cancel();
+				try {
+					subscriber.onError(e);
+				} catch (Throwable e2) {
+				}
+			} finally {
+				runner = null;
+				scheduled.set(false);
+			}
+			if (!cancelled && (error != null || complete || demand.get() > 0 && !isEmpty()))
+				schedule();
+		}
+	}
+
+	/**
+	 * Subscriber taking items one by one; failure of accept is logged and next item requested.
+	 */
+	public static abstract class Consumer<T> implements Flow.Subscriber<T> {
+		protected Flow.Subscription subscription;
+
+		public abstract void accept(T item) throws Exception;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(T item) {
+			try {
+				accept(item);
+			} catch (Exception e) {
+				logger.warn("consumer " + this + " failed", e);
+			}
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			logger.warn("consumer " + this + " got error", throwable);
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+
+	// get/set
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	public synchronized int getBacklogSize() {
+		return backlog.size();
+	}
+
+	/**
+	 * @return items dropped from full backlog or buffers of slow subscribers
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getOfferTimeout() {
+		return offerTimeout;
+	}
+
+	public void setOfferTimeout(long offerTimeout) {
+		this.offerTimeout = offerTimeout;
+	}
+}
@@ -54,8 +54,24 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.PublicKey;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +82,9 @@ public class Client implements Closeable {
 	static final Logger logger = LoggerFactory.getLogger(Client.class);
 	public static boolean DEBUG_JSON = false;
 	public static boolean DEBUG_RAW = false;
+	public static int DEFAULT_CONCURRENCY = 4;
+	public static boolean ACK_REPLIES = true;
+	public static int MAX_ACK_REPLIES = 500;
 	UserAccount userAccount;
 	String serverID;
 	String serverNymID;
@@ -73,6 +92,25 @@ public class Client implements Closeable {
 	Transport transport;
 
 	ReqNumManager reqNumManager;
+	// request numbering and sending, one at a time
+	final Object session = new Object();
+	// request numbers of replies we've got, sent in ackReplies so the server drops their replyNotices
+	final LongSet ackReplies = new LongSet();
+	// getAccount, getNymbox, checkUser asked by many threads at once share one exchange (and response object)
+	final SingleFlight<String, Object> reads = new SingleFlight<String, Object>();
+	// replies of other requests so far, a read doesn't join one started before a change
+	final AtomicLong changes = new AtomicLong();
+	// last nymboxHash reported by the server
+	volatile String nymboxHash;
+	BoxReceiptCache boxReceiptCache = new BoxReceiptCache();
+	// checks notary signatures of responses when set
+	SignatureVerifier verifier;
+	ExecutorService executor;
+	boolean ownExecutor;
+	ExecutorService hookExecutor;
+	boolean ownHookExecutor;
+	// no hooks run after close
+	volatile boolean closed;
 
 	public String send(String unsigned) {
 		try {
@@ -90,14 +128,18 @@ public class Client implements Closeable {
 	 * @return SIGNED string
 	 */
 	private String send_s(String signed) {
+		return openSigned(transport.send(sealSigned(signed)));
+	}
 
-		byte[] bytes;
+	private byte[] sealSigned(String signed) {
 		try {
-			bytes = Utils.sealToB64(signed, serverNymID, serverPublicKey);
+			return Utils.sealToB64(signed, serverNymID, serverPublicKey);
 		} catch (Exception e) {
 			throw new RuntimeException("sealing message", e);
 		}
-		bytes = transport.send(bytes);
+	}
+
+	private String openSigned(byte[] bytes) {
 		if (bytes == null)
 			throw new NoResponseException();
 		String str = Utils.string(bytes, Utils.US_ASCII);
@@ -105,8 +147,7 @@ public class Client implements Closeable {
 			str = Utils.unarmor(str, false);
 			byte[] by = Utils.base64Decode(str);
 			try {
-				by = Utils.unpack(by, byte[].class);
-				str = Utils.open(by, userAccount.getCpairs().get("E").getPrivate());
+				str = Utils.open(Utils.unpackBlob(by), null, userAccount.getCpairs().get("E").getPrivate());
 			} catch (Exception e) {
 				throw new RuntimeException("opening envelope");
 			}
@@ -136,6 +177,17 @@ public class Client implements Closeable {
 
 	@Override
 	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			if (ownExecutor && executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+			if (ownHookExecutor && hookExecutor != null) {
+				hookExecutor.shutdown();
+				hookExecutor = null;
+			}
+		}
 		transport.close();
 	}
 
@@ -159,6 +211,31 @@ public class Client implements Closeable {
 		return transport;
 	}
 
+	/**
+	 * worker pool for sealing/opening of pipelined messages, daemon fixed pool is created when not set
+	 */
+	public synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "otj-client-worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			ownExecutor = true;
+		}
+		return executor;
+	}
+
+	public synchronized void setExecutor(ExecutorService executor) {
+		if (ownExecutor && this.executor != null)
+			this.executor.shutdown();
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
 	public long getRequest() {
 		if (reqNumManager != null)
 			return reqNumManager.getReqNum(this);
@@ -166,6 +243,13 @@ public class Client implements Closeable {
 	}
 
 	public long getRequestRaw() {
+		return getRequestResp().getNewRequestNum();
+	}
+
+	/**
+	 * current request number and nymboxHash, costs no request number
+	 */
+	public MSG.GetRequestResp getRequestResp() {
 		MSG.GetRequest req = new MSG.GetRequest();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
@@ -175,19 +259,108 @@ public class Client implements Closeable {
 		nullCheck(resp);
 		if (!resp.getSuccess())
 			throw new RuntimeException("no success response");
-		return resp.getNewRequestNum();
+		return resp;
 	}
 
+	/**
+	 * Sends message, request number is assigned here (unless set already) so the numbers reach the server in order
+	 * even when many threads share the client.
+	 */
 	public MSG.Message send(MSG.Message msg) {
+		byte[] reply;
+		synchronized (session) {
+			number(msg);
+			reply = transport.send(seal(msg));
+		}
+		return checked(open(reply));
+	}
+
+	void number(MSG.Message msg) {
+		MSG.Request req = msg.request();
+		if (req == null || req instanceof MSG.GetRequest)
+			return;
+		if (req.getRequestNum() == null)
+			req.setRequestNum(getRequest());
+		if (ACK_REPLIES && msg.getAckReplies() == null)
+			synchronized (ackReplies) {
+				if (!ackReplies.isEmpty())
+					msg.setAckReplies(new OT.NumList(serverID, ackReplies));
+			}
+	}
+
+	/*
+	 * reply of a request is here: acknowledge it later, forget what the server says it has dropped
+	 */
+	void received(MSG.Message msg) {
+		MSG.Response resp = msg.response();
+		if (resp instanceof MSG.GetRequestResp && ((MSG.GetRequestResp) resp).getNymboxHash() != null)
+			nymboxHash = ((MSG.GetRequestResp) resp).getNymboxHash();
+		else if (resp instanceof MSG.GetNymboxResp && ((MSG.GetNymboxResp) resp).getNymboxHash() != null)
+			nymboxHash = ((MSG.GetNymboxResp) resp).getNymboxHash();
+		if (resp == null || resp.getRequestNum() == null || resp instanceof MSG.GetRequestResp)
+			return;
+		if (!(resp instanceof MSG.GetAccountResp || resp instanceof MSG.GetNymboxResp || resp instanceof MSG.CheckUserResp))
+			changes.incrementAndGet();
+		synchronized (ackReplies) {
+			if (msg.getAckReplies() != null)
+				ackReplies.removeAll(msg.getAckReplies());
+			ackReplies.add(resp.getRequestNum());
+			while (ackReplies.size() > MAX_ACK_REPLIES)
+				ackReplies.remove(ackReplies.first());
+		}
+	}
+
+	/*
+	 * acknowledged replies older than the nymbox without replyNotice in it are done with
+	 */
+	void pruneAckReplies(MSG.GetNymboxResp nymbox) {
+		if (nymbox == null || nymbox.getRequestNum() == null || nymbox.getNymboxLedger() == null)
+			return;
+		LongSet notices = new LongSet();
+		if (nymbox.getNymboxLedger().getNymboxRecords() != null)
+			for (OT.BoxRecord rec : nymbox.getNymboxLedger().getNymboxRecords())
+				if (rec.getType() == OT.Transaction.Type.replyNotice && rec.getRequestNumber() != null)
+					notices.add(rec.getRequestNumber());
+		long fetched = nymbox.getRequestNum();
+		synchronized (ackReplies) {
+			for (long num : ackReplies.toLongArray())
+				if (num < fetched && !notices.contains(num))
+					ackReplies.remove(num);
+		}
+	}
+
+	/**
+	 * @return true if reply of the request was received and its replyNotice will be dropped by the server
+	 */
+	public boolean isReplyAcknowledged(long requestNum) {
+		synchronized (ackReplies) {
+			return ackReplies.contains(requestNum);
+		}
+	}
+
+	/**
+	 * signs message and seals it in envelope for the server
+	 */
+	byte[] seal(MSG.Message msg) {
 		Engines.render(msg, getUserAccount().getCpairs().get("A").getPrivate());
 		if (DEBUG_JSON)
 			logger.debug("\n{\"status\": \"request\", \"message\":\n{}},", Engines.gson.toJson(msg));
 		else if (DEBUG_RAW)
 			logger.debug("\n{}", msg.getSigned());
-		String signed = send_s(msg.getSigned());
+		return sealSigned(msg.getSigned());
+	}
+
+	/**
+	 * opens server envelope and parses response message
+	 */
+	MSG.Message open(byte[] bytes) {
+		String signed = openSigned(bytes);
 		MSG.Message rmsg = new MSG.Message();
 		rmsg.setSigned(signed);
 		Engines.parse(rmsg);
+		if (verifier != null)
+			rmsg.setVerification(verifier.submit(rmsg));
+		received(rmsg);
 		if (DEBUG_JSON)
 			logger.debug("\n{\"status\": \"response\", \"message\":\n{}},", Engines.gson.toJson(rmsg));
 		else if (DEBUG_RAW)
@@ -195,6 +368,103 @@ public class Client implements Closeable {
 		return rmsg;
 	}
 
+	/*
+	 * strict verifier: waits for the check of the response before the caller gets it
+	 */
+	MSG.Message checked(MSG.Message rmsg) {
+		if (rmsg != null && verifier != null && verifier.isStrict() && !SignatureVerifier.isVerified(rmsg))
+			throw new BadSignatureException(rmsg.response() == null ? null : rmsg.response().getRequestNum());
+		return rmsg;
+	}
+
+	/**
+	 * Sends messages, at most concurrency of them in flight. Messages are numbered and sent in list order, no other
+	 * request of the session gets in between. Signing/sealing and opening/parsing runs on the executor. Without
+	 * {@link PipelinedTransport} falls back to one by one sending. Requests whose replies didn't come are sent once
+	 * more one by one, with the same request numbers, so a request the server did get is refused instead of done
+	 * twice.
+	 * 
+	 * @return responses in order of messages, null for a request that got no response
+	 */
+	public List<MSG.Message> sendAll(List<MSG.Message> msgs, int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency " + concurrency);
+		List<MSG.Message> result = new ArrayList<MSG.Message>(msgs.size());
+		if (!(transport instanceof PipelinedTransport) || msgs.size() < 2) {
+			synchronized (session) {
+				for (MSG.Message msg : msgs)
+					try {
+						result.add(send(msg));
+					} catch (NoResponseException e) {
+						logger.warn("no response to {}", msg.request().getClass().getSimpleName());
+						result.add(null);
+					}
+			}
+			return result;
+		}
+		PipelinedTransport pipe = (PipelinedTransport) transport;
+		ExecutorService executor = getExecutor();
+		List<Future<MSG.Message>> opened = new ArrayList<Future<MSG.Message>>(msgs.size());
+		synchronized (session) {
+			for (MSG.Message msg : msgs)
+				number(msg);
+			List<Future<byte[]>> sealed = new ArrayList<Future<byte[]>>(msgs.size());
+			for (final MSG.Message msg : msgs)
+				sealed.add(executor.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws Exception {
+						return seal(msg);
+					}
+				}));
+			for (int i = 0; i < msgs.size(); i += concurrency) {
+				int end = Math.min(msgs.size(), i + concurrency);
+				List<byte[]> window = new ArrayList<byte[]>(end - i);
+				for (int j = i; j < end; j++)
+					window.add(get(sealed.get(j)));
+				List<byte[]> replies = pipe.sendAll(window);
+				for (int j = 0; j < window.size(); j++) {
+					byte[] reply = j < replies.size() ? replies.get(j) : null;
+					if (reply == null) {
+						logger.warn("no pipelined reply to request {}, sending it again", msgs.get(i + j).request()
+								.getRequestNum());
+						reply = pipe.send(window.get(j));
+					}
+					final byte[] r = reply;
+					opened.add(executor.submit(new Callable<MSG.Message>() {
+						@Override
+						public MSG.Message call() throws Exception {
+							return open(r);
+						}
+					}));
+				}
+			}
+		}
+		for (int i = 0; i < opened.size(); i++)
+			try {
+				result.add(get(opened.get(i)));
+			} catch (NoResponseException e) {
+				logger.warn("no response to request {}", msgs.get(i).request().getRequestNum());
+				result.add(null);
+			}
+		// checks of the batch ran meanwhile
+		for (MSG.Message rmsg : result)
+			checked(rmsg);
+		return result;
+	}
+
+	static <T> T get(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
 	public MSG.CreateUserAccountResp createUserAccountNew(OT.User credentialList, OT.CredentialMap credentials) {
 		MSG.CreateUserAccount req = new MSG.CreateUserAccount();
 		req.setNymID(userAccount.getNymID());
@@ -206,12 +476,20 @@ public class Client implements Closeable {
 		return send(new MSG.Message().set(req)).getCreateUserAccountResp();
 	}
 
-	public MSG.CheckUserResp checkUser(String nymID) {
+	public MSG.CheckUserResp checkUser(final String nymID) {
+		return (MSG.CheckUserResp) reads.run("checkUser " + nymID + " " + changes.get(), new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return checkUserNow(nymID);
+			}
+		});
+	}
+
+	MSG.CheckUserResp checkUserNow(String nymID) {
 		MSG.CheckUser req = new MSG.CheckUser();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
 		req.setNymID2(nymID);
-		req.setRequestNum(getRequest());
 		MSG.Message msg = new MSG.Message();
 		msg.setCheckUser(req);
 		MSG.Message resp = send(msg);
@@ -229,7 +507,6 @@ public class Client implements Closeable {
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
 		req.setNymID2(recipientNymID);
-		req.setRequestNum(getRequest());
 		try {
 			ByteBuffer buff = Utils.seal(message, recipientNymID, recipientPublicKey);
 			byte[] enc = new byte[buff.remaining()];
@@ -241,26 +518,146 @@ public class Client implements Closeable {
 		return send(new MSG.Message().set(req)).getSendUserMessageResp();
 	}
 
+	/**
+	 * Same message for many nyms, payload is sealed once for all of them (so every recipient sees the other nymIDs
+	 * in the envelope) and requests are pipelined.
+	 * 
+	 * @param recipients
+	 *            nymID -> encryption key
+	 * @return responses in order of recipients, null for the one that got no response
+	 */
+	public List<MSG.SendUserMessageResp> sendUserMessages(String message, Map<String, PublicKey> recipients) {
+		OT.ArmoredData payload;
+		try {
+			ByteBuffer buff = Utils.seal(message, recipients);
+			byte[] enc = new byte[buff.remaining()];
+			buff.get(enc);
+			payload = new OT.ArmoredData(enc);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		List<MSG.Message> msgs = new ArrayList<MSG.Message>(recipients.size());
+		for (String recipientNymID : recipients.keySet()) {
+			MSG.SendUserMessage req = new MSG.SendUserMessage();
+			req.setNymID(userAccount.getNymID());
+			req.setServerID(serverID);
+			req.setNymID2(recipientNymID);
+			req.setMessagePayload(payload);
+			msgs.add(new MSG.Message().set(req));
+		}
+		List<MSG.SendUserMessageResp> result = new ArrayList<MSG.SendUserMessageResp>(msgs.size());
+		for (MSG.Message resp : sendAll(msgs, DEFAULT_CONCURRENCY))
+			result.add(resp == null ? null : resp.getSendUserMessageResp());
+		return result;
+	}
+
 	public MSG.GetNymboxResp getNymbox() {
+		return (MSG.GetNymboxResp) reads.run("getNymbox " + changes.get(), new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getNymboxNow();
+			}
+		});
+	}
+
+	MSG.GetNymboxResp getNymboxNow() {
 		MSG.GetNymbox req = new MSG.GetNymbox();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		MSG.Message msg = new MSG.Message();
 		msg.setGetNymbox(req);
 		MSG.Message resp = send(msg);
+		pruneAckReplies(resp.getGetNymboxResp());
 		return filter(resp.getGetNymboxResp());
 	}
 
 	public MSG.GetBoxReceiptResp getBoxReceipt(String accountID, OT.Ledger.Type boxType, long transactionNum) {
+		return getBoxReceipt(accountID, boxType, transactionNum, null);
+	}
+
+	/**
+	 * @param receiptHash
+	 *            receiptHash of the box record, checked against cached receipt, can be null
+	 */
+	public MSG.GetBoxReceiptResp getBoxReceipt(String accountID, OT.Ledger.Type boxType, long transactionNum,
+			String receiptHash) {
+		MSG.GetBoxReceiptResp cached = boxReceiptCache == null ? null : boxReceiptCache.get(accountID, boxType,
+				transactionNum, receiptHash);
+		if (cached != null)
+			return cached;
 		MSG.GetBoxReceipt req = new MSG.GetBoxReceipt();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAccountID(accountID);
 		req.setBoxType(boxType);
 		req.setTransactionNum(transactionNum);
-		return send(new MSG.Message().set(req)).getGetBoxReceiptResp();
+		MSG.Message resp = send(new MSG.Message().set(req));
+		if (boxReceiptCache != null)
+			boxReceiptCache.put(accountID, boxType, transactionNum, receiptHash, resp);
+		return resp.getGetBoxReceiptResp();
+	}
+
+	public List<MSG.GetBoxReceiptResp> getBoxReceipts(String accountID, OT.Ledger.Type boxType,
+			List<Long> transactionNums, int concurrency) {
+		return getBoxReceipts(accountID, boxType, transactionNums, null, concurrency);
+	}
+
+	public List<MSG.GetBoxReceiptResp> getBoxReceipts(String accountID, OT.Ledger.Type boxType,
+			Iterable<OT.BoxRecord> records, int concurrency) {
+		List<Long> nums = new ArrayList<Long>();
+		List<String> hashes = new ArrayList<String>();
+		for (OT.BoxRecord rec : records) {
+			nums.add(rec.getTransactionNum());
+			hashes.add(rec.getReceiptHash());
+		}
+		return getBoxReceipts(accountID, boxType, nums, hashes, concurrency);
+	}
+
+	/**
+	 * Fetches receipts concurrently, cached ones are not requested.
+	 * 
+	 * @param receiptHashes
+	 *            parallel to transactionNums, can be null
+	 * @return receipts in order of transactionNums, null for the one that got no response
+	 */
+	public List<MSG.GetBoxReceiptResp> getBoxReceipts(String accountID, OT.Ledger.Type boxType,
+			List<Long> transactionNums, List<String> receiptHashes, int concurrency) {
+		int size = transactionNums.size();
+		MSG.GetBoxReceiptResp[] result = new MSG.GetBoxReceiptResp[size];
+		List<Integer> missing = new ArrayList<Integer>();
+		List<MSG.Message> msgs = new ArrayList<MSG.Message>();
+		for (int i = 0; i < size; i++) {
+			String receiptHash = receiptHashes == null ? null : receiptHashes.get(i);
+			if (boxReceiptCache != null)
+				result[i] = boxReceiptCache.get(accountID, boxType, transactionNums.get(i), receiptHash);
+			if (result[i] != null)
+				continue;
+			MSG.GetBoxReceipt req = new MSG.GetBoxReceipt();
+			req.setNymID(userAccount.getNymID());
+			req.setServerID(serverID);
+			req.setAccountID(accountID);
+			req.setBoxType(boxType);
+			req.setTransactionNum(transactionNums.get(i));
+			missing.add(i);
+			msgs.add(new MSG.Message().set(req));
+		}
+		if (!msgs.isEmpty()) {
+			List<MSG.Message> resps = sendAll(msgs, concurrency);
+			for (int j = 0; j < missing.size(); j++) {
+				int i = missing.get(j);
+				MSG.Message resp = resps.get(j);
+				if (resp == null)
+					continue;
+				if (boxReceiptCache != null)
+					boxReceiptCache.put(accountID, boxType, transactionNums.get(i),
+							receiptHashes == null ? null : receiptHashes.get(i), resp);
+				result[i] = resp.getGetBoxReceiptResp();
+			}
+		}
+		List<MSG.GetBoxReceiptResp> list = new ArrayList<MSG.GetBoxReceiptResp>(size);
+		for (MSG.GetBoxReceiptResp resp : result)
+			list.add(resp);
+		return list;
 	}
 
 	/*
@@ -275,7 +672,6 @@ public class Client implements Closeable {
 		MSG.GetTransactionNum req = new MSG.GetTransactionNum();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setNymboxHash(nymboxHash);
 		return send(new MSG.Message().set(req)).getGetTransactionNumResp();
 	}
@@ -284,7 +680,6 @@ public class Client implements Closeable {
 		MSG.CreateAccount req = new MSG.CreateAccount();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAssetType(assetType);
 		return send(new MSG.Message().set(req)).getCreateAccountResp();
 	}
@@ -293,7 +688,6 @@ public class Client implements Closeable {
 		MSG.GetInbox req = new MSG.GetInbox();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAccountID(accountID);
 		req = filter(req);
 		return filter(send(new MSG.Message().set(req)).getGetInboxResp());
@@ -303,25 +697,76 @@ public class Client implements Closeable {
 		MSG.GetOutbox req = new MSG.GetOutbox();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAccountID(accountID);
 		return send(new MSG.Message().set(req)).getGetOutboxResp();
 	}
 
-	public MSG.GetAccountResp getAccount(String accountID) {
+	public MSG.GetAccountResp getAccount(final String accountID) {
+		return (MSG.GetAccountResp) reads.run("getAccount " + accountID + " " + changes.get(), new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return getAccountNow(accountID);
+			}
+		});
+	}
+
+	MSG.GetAccountResp getAccountNow(String accountID) {
 		MSG.GetAccount req = new MSG.GetAccount();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAccountID(accountID);
 		return send(new MSG.Message().set(req)).getGetAccountResp();
 	}
 
+	/**
+	 * inbox, outbox and asset account of one account
+	 */
+	public static class AccountFiles {
+		public MSG.GetInboxResp inbox;
+		public MSG.GetOutboxResp outbox;
+		public MSG.GetAccountResp account;
+	}
+
+	/**
+	 * Fetches inbox, outbox and account of all accounts in one pipelined batch.
+	 * 
+	 * @return files in order of accountIDs, a file that got no response is null
+	 */
+	public List<AccountFiles> getAccountFiles(List<String> accountIDs, int concurrency) {
+		List<MSG.Message> msgs = new ArrayList<MSG.Message>(accountIDs.size() * 3);
+		for (String accountID : accountIDs) {
+			MSG.GetInbox inbox = new MSG.GetInbox();
+			inbox.setNymID(userAccount.getNymID());
+			inbox.setServerID(serverID);
+			inbox.setAccountID(accountID);
+			msgs.add(new MSG.Message().set(filter(inbox)));
+			MSG.GetOutbox outbox = new MSG.GetOutbox();
+			outbox.setNymID(userAccount.getNymID());
+			outbox.setServerID(serverID);
+			outbox.setAccountID(accountID);
+			msgs.add(new MSG.Message().set(outbox));
+			MSG.GetAccount account = new MSG.GetAccount();
+			account.setNymID(userAccount.getNymID());
+			account.setServerID(serverID);
+			account.setAccountID(accountID);
+			msgs.add(new MSG.Message().set(account));
+		}
+		List<MSG.Message> resps = sendAll(msgs, concurrency);
+		List<AccountFiles> result = new ArrayList<AccountFiles>(accountIDs.size());
+		for (int i = 0; i < resps.size(); i += 3) {
+			AccountFiles files = new AccountFiles();
+			files.inbox = resps.get(i) == null ? null : filter(resps.get(i).getGetInboxResp());
+			files.outbox = resps.get(i + 1) == null ? null : resps.get(i + 1).getGetOutboxResp();
+			files.account = resps.get(i + 2) == null ? null : resps.get(i + 2).getGetAccountResp();
+			result.add(files);
+		}
+		return result;
+	}
+
 	public MSG.ProcessNymboxResp processNymbox(OT.Ledger ledger, String nymboxHash) {
 		MSG.ProcessNymbox req = new MSG.ProcessNymbox();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setNymboxHash(nymboxHash);
 		req.setProcessLedger(ledger);
 		return send(new MSG.Message().set(req)).getProcessNymboxResp();
@@ -331,7 +776,6 @@ public class Client implements Closeable {
 		MSG.ProcessInbox req = new MSG.ProcessInbox();
 		req.setNymID(userAccount.getNymID());
 		req.setServerID(serverID);
-		req.setRequestNum(getRequest());
 		req.setAccountID(ledger.getAccountID());
 		req.setNymboxHash(nymboxHash);
 		req.setProcessLedger(ledger);
@@ -350,7 +794,6 @@ public class Client implements Closeable {
 		req.setNymID(userAccount.getNymID());
 		req.setAccountID(accountLedger.getAccountID());
 		req.setNymboxHash(nymboxHash);
-		req.setRequestNum(getRequest());
 		req.setAccountLedger(accountLedger);
 		return req;
 	}
@@ -359,11 +802,65 @@ public class Client implements Closeable {
 		this.reqNumManager = reqNumManager;
 	}
 
+	/**
+	 * @return reads that shared an exchange already in flight
+	 */
+	public long getCoalescedReads() {
+		return reads.getCoalesced();
+	}
+
+	/**
+	 * @return nymboxHash of last getRequest/getNymbox response, null before any
+	 */
+	public String getNymboxHash() {
+		return nymboxHash;
+	}
+
+	/**
+	 * @return count of responses of requests which may have changed nymbox or accounts
+	 */
+	public long getChanges() {
+		return changes.get();
+	}
+
+	public long getExecutedReads() {
+		return reads.getExecuted();
+	}
+
+	public SignatureVerifier getVerifier() {
+		return verifier;
+	}
+
+	/*
+	 * null disables verification; result is in Message.getVerification(), strict verifier fails the call
+	 */
+	public void setVerifier(SignatureVerifier verifier) {
+		this.verifier = verifier;
+	}
+
+	public BoxReceiptCache getBoxReceiptCache() {
+		return boxReceiptCache;
+	}
+
+	/*
+	 * null disables caching
+	 */
+	public void setBoxReceiptCache(BoxReceiptCache boxReceiptCache) {
+		this.boxReceiptCache = boxReceiptCache;
+	}
+
 	@SuppressWarnings("serial")
 	public static class NoResponseException extends RuntimeException {
 
 	}
 
+	@SuppressWarnings("serial")
+	public static class BadSignatureException extends RuntimeException {
+		public BadSignatureException(Long requestNum) {
+			super("response not signed by the notary, request " + requestNum);
+		}
+	}
+
 	@SuppressWarnings("serial")
 	public static class NotInEnvelopeException extends RuntimeException {
 		public NotInEnvelopeException(String message) {
@@ -385,11 +882,48 @@ public class Client implements Closeable {
 		int priority;
 		Class<?> clazz;
 		Filter<?> filter;
+		int mask;
+	}
+
+	protected List<PrioritizedFilter> filters = new CopyOnWriteArrayList<PrioritizedFilter>();
+
+	// filters and hooks applicable to a class, in order
+	protected static class Dispatch {
+		PrioritizedFilter[] filters;
+		HookRunner[] hooks;
 	}
 
-	protected List<PrioritizedFilter> filters = new ArrayList<PrioritizedFilter>();
+	static final PrioritizedFilter[] NO_FILTERS = new PrioritizedFilter[0];
+	static final HookRunner[] NO_HOOKS = new HookRunner[0];
 
-	public <T> void addFilter(Filter<T> filter, Class<T> clazz, int priority) {
+	// replaced on every filter/hook change, so table built from old lists is dropped with its map
+	protected volatile ConcurrentMap<Class<?>, Dispatch> dispatch = new ConcurrentHashMap<Class<?>, Dispatch>();
+
+	protected Dispatch dispatch(Class<?> clazz) {
+		ConcurrentMap<Class<?>, Dispatch> table = dispatch;
+		Dispatch d = table.get(clazz);
+		if (d == null) {
+			d = new Dispatch();
+			List<PrioritizedFilter> fl = new ArrayList<PrioritizedFilter>();
+			for (PrioritizedFilter f : filters)
+				if (f.clazz.isAssignableFrom(clazz))
+					fl.add(f);
+			d.filters = fl.isEmpty() ? NO_FILTERS : fl.toArray(new PrioritizedFilter[fl.size()]);
+			List<HookRunner> hl = new ArrayList<HookRunner>();
+			for (HookRunner h : hooks)
+				if (h.accepts(clazz))
+					hl.add(h);
+			d.hooks = hl.isEmpty() ? NO_HOOKS : hl.toArray(new HookRunner[hl.size()]);
+			table.put(clazz, d);
+		}
+		return d;
+	}
+
+	protected void dispatchChanged() {
+		dispatch = new ConcurrentHashMap<Class<?>, Dispatch>();
+	}
+
+	public synchronized <T> void addFilter(Filter<T> filter, Class<T> clazz, int priority) {
 		if (filter == null)
 			throw new IllegalArgumentException("filter == null");
 		if (clazz == null)
@@ -398,24 +932,258 @@ public class Client implements Closeable {
 		pf.filter = filter;
 		pf.priority = priority;
 		pf.clazz = clazz;
-		for (int i = 0; i < filters.size(); i++)
-			if (pf.priority < filters.get(i).priority) {
-				filters.add(i, pf);
-				return;
-			}
-		filters.add(pf);
+		pf.mask = filter.getMask();
+		int i = 0;
+		while (i < filters.size() && pf.priority >= filters.get(i).priority)
+			i++;
+		filters.add(i, pf);
+		dispatchChanged();
 	}
 
 	protected <T> T filter(T object) {
 		return filter(object, EVENT_STD);
 	}
 
+	/**
+	 * filters are looked up by class of the object given, mask of a filter is read when it's added
+	 */
 	@SuppressWarnings("unchecked")
 	protected <T> T filter(T object, int event) {
-		for (PrioritizedFilter f : filters)
-			if ((event & f.filter.getMask()) > 0)
-				if (f.clazz.isAssignableFrom(object.getClass()))
-					object = ((Filter<T>) f.filter).filter(object, this);
+		if (object == null)
+			return null;
+		Class<?> clazz = object.getClass();
+		Dispatch d = dispatch(clazz);
+		for (PrioritizedFilter f : d.filters)
+			if ((event & f.mask) > 0)
+				object = ((Filter<T>) f.filter).filter(object, this);
+		if (object == null)
+			return null;
+		if (object.getClass() != clazz)
+			d = dispatch(object.getClass());
+		for (HookRunner h : d.hooks)
+			h.offer(object);
 		return object;
 	}
+
+	// async hooks
+
+	// a call waits for room in a full hook queue
+	public static int HOOK_QUEUE_SIZE = 64;
+
+	/**
+	 * Gets filtered responses after the call returned, on hook executor, one at a time in order they came. May send
+	 * own requests through the client. Exceptions are logged, they don't reach the call nor other hooks.
+	 */
+	public static interface AsyncHook<T> {
+		public void onResponse(T resp, Client client) throws Exception;
+	}
+
+	protected class HookRunner implements Runnable {
+		final AsyncHook<Object> hook;
+		final List<Class<?>> classes = new CopyOnWriteArrayList<Class<?>>();
+		// guarded by this
+		final Deque<Object> queue = new ArrayDeque<Object>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		// queued and running
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicLong delivered = new AtomicLong(), failed = new AtomicLong(), dropped = new AtomicLong();
+		volatile Thread runner;
+
+		@SuppressWarnings("unchecked")
+		HookRunner(AsyncHook<?> hook) {
+			this.hook = (AsyncHook<Object>) hook;
+		}
+
+		boolean accepts(Class<?> clazz) {
+			for (Class<?> c : classes)
+				if (c.isAssignableFrom(clazz))
+					return true;
+			return false;
+		}
+
+		void offer(Object object) {
+			if (closed) {
+				dropped.incrementAndGet();
+				logger.debug("client closed, hook {} not run", hook);
+				return;
+			}
+			pending.incrementAndGet();
+			try {
+				synchronized (this) {
+					// hook calling the client mustn't wait for itself, its queue grows over the bound instead
+					while (queue.size() >= HOOK_QUEUE_SIZE && Thread.currentThread() != runner)
+						wait();
+					queue.add(object);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				done();
+				dropped.incrementAndGet();
+				logger.warn("interrupted waiting for hook {}, dropped {}", hook, object.getClass().getSimpleName());
+				return;
+			}
+			schedule();
+		}
+
+		synchronized Object poll() {
+			Object object = queue.poll();
+			if (object != null)
+				notifyAll();
+			return object;
+		}
+
+		synchronized boolean isEmpty() {
+			return queue.isEmpty();
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				try {
+					getHookExecutor().execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					logger.warn("hook executor rejected {}, queued responses dropped", hook);
+					while (poll() != null) {
+						dropped.incrementAndGet();
+						done();
+					}
+				}
+		}
+
+		@Override
+		public void run() {
+			runner = Thread.currentThread();
+			try {
+				Object object;
+				while ((object = poll()) != null)
+					try {
+						hook.onResponse(object, Client.this);
+						delivered.incrementAndGet();
+					} catch (Throwable e) {
+						failed.incrementAndGet();
+						logger.warn("hook " + hook + " failed", e);
+					} finally {
+						done();
+					}
+			} finally {
+				runner = null;
+				scheduled.set(false);
+			}
+			if (!isEmpty())
+				schedule();
+		}
+
+		void done() {
+			if (pending.decrementAndGet() == 0)
+				synchronized (this) {
+					notifyAll();
+				}
+		}
+
+		synchronized boolean await(long until) throws InterruptedException {
+			while (pending.get() > 0) {
+				long left = until - System.currentTimeMillis();
+				if (left <= 0)
+					return false;
+				wait(left);
+			}
+			return true;
+		}
+
+		// get/set
+
+		public long getDelivered() {
+			return delivered.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		public int getPending() {
+			return pending.get();
+		}
+	}
+
+	protected List<HookRunner> hooks = new CopyOnWriteArrayList<HookRunner>();
+
+	/**
+	 * Registers hook for responses of the class; same hook added for more classes keeps one queue, so it sees them
+	 * in order.
+	 */
+	public synchronized <T> HookRunner addHook(AsyncHook<? super T> hook, Class<T> clazz) {
+		if (hook == null)
+			throw new IllegalArgumentException("hook == null");
+		if (clazz == null)
+			throw new IllegalArgumentException("clazz == null");
+		HookRunner runner = null;
+		for (HookRunner h : hooks)
+			if (h.hook == hook)
+				runner = h;
+		if (runner == null)
+			hooks.add(runner = new HookRunner(hook));
+		runner.classes.add(clazz);
+		dispatchChanged();
+		return runner;
+	}
+
+	public synchronized void removeHook(AsyncHook<?> hook) {
+		for (HookRunner h : hooks)
+			if (h.hook == hook)
+				hooks.remove(h);
+		dispatchChanged();
+	}
+
+	/**
+	 * Waits till hooks handled the responses given so far, e.g. before box records are accepted and their receipts
+	 * are gone. Hook's own thread doesn't wait for itself.
+	 * 
+	 * @return false on timeout
+	 */
+	public boolean awaitHooks(long timeoutMillis) {
+		long until = System.currentTimeMillis() + timeoutMillis;
+		try {
+			for (HookRunner h : hooks)
+				if (h.runner != Thread.currentThread() && !h.await(until))
+					return false;
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * hooks run here, daemon cached pool is created when not set
+	 * 
+	 * @throws RejectedExecutionException
+	 *             when client is closed
+	 */
+	public synchronized ExecutorService getHookExecutor() {
+		if (closed)
+			throw new RejectedExecutionException("client closed");
+		if (hookExecutor == null) {
+			hookExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "otj-client-hook");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			ownHookExecutor = true;
+		}
+		return hookExecutor;
+	}
+
+	public synchronized void setHookExecutor(ExecutorService hookExecutor) {
+		if (ownHookExecutor && this.hookExecutor != null)
+			this.hookExecutor.shutdown();
+		this.hookExecutor = hookExecutor;
+		this.ownHookExecutor = false;
+	}
 }
@@ -57,12 +57,15 @@ import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,35 +78,82 @@ import com.kactech.otj.model.UserAccount;
 import com.kactech.otj.script.ScriptFilter;
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
+/**
+ * Nym with its asset accounts at one server, keeps transaction numbers and processes boxes. Safe for use from many
+ * threads: cached account and nymbox are readable without blocking, sequences on an account are serialized by its
+ * lock, changes of nym state (numbers, nymbox) by the nym lock. Account locks are taken before the nym lock, many
+ * account locks in accountID order.
+ */
 public class EClient implements Closeable, ReqNumManager {
 	static final Logger logger = LoggerFactory.getLogger(EClient.class);
 	static final String userAccountFile = "userAccount.json";
 	static final String stateFile = "state.json";
+	static final String journalFile = "state.journal";
+	static final String snapshotFile = "client.snap";
+	public static boolean BINARY_SNAPSHOT = true;
+	public static boolean MMAP_SNAPSHOT = false;
 	static final String nymIDFile = "nym.id";
 	static final String accountIDFile = "account.id";
 	static final String userAccountReqFile = "createUserAccountReq.txt";
+	static final String receiptsDir = "receipts";
+	// check notary signatures of responses, calls fail on response not signed by the notary
+	public static boolean VERIFY_RESPONSES = false;
+	public static long RECIPIENT_KEY_TTL = 10 * 60 * 1000l;
+	// processNymbox rounds on nymbox fetched after processing
+	public static int NYMBOX_ROUNDS = 3;
+	// how long box processing waits for async hooks to see the box first
+	public static long HOOKS_TIMEOUT = 10 * 1000l;
+
+	static class RecipientKey {
+		PublicKey key;
+		long expires;
+	}
 
 	@XStreamAlias("EClientState")
 	public static class State {
 		String assetType;
 		String accountID;
-		LinkedList<Long> transactionNums;
-		LinkedList<Long> issuedNums;
+		LongSet transactionNums;
+		LongSet issuedNums;
+		// accountID -> assetType, all asset accounts of the nym, accountID above is the default one
+		Map<String, String> accounts;
+		// nymbox records already accepted (or never to be), pruned to the records still in nymbox
+		LongSet nymboxHandled;
+		// saved snapshots, journal is replayed only over the one it was started for
+		long generation;
 	}
 
 	File dir;
 	ConnectionInfo connInfo;
+	// shared ones, set before init, otherwise client creates own
+	Transport transport;
+	ExecutorService executor;
 	String assetType;
 	boolean createNewAccount;
 
 	Long reqNum;
 	State state;
+	StateJournal journal;
+	long initStarted;
 
 	Client client;
 
-	OT.Account cachedAccount;
-	MSG.GetNymboxResp cachedNymbox;
+	volatile OT.Account cachedAccount;
+	final Map<String, OT.Account> cachedAccounts = new HashMap<String, OT.Account>();
+	final LedgerMirror mirror = new LedgerMirror();
+	volatile MSG.GetNymboxResp cachedNymbox;
+	// client changes when cached nymbox was fetched
+	volatile long cachedNymboxChanges = -1;
+	final ReentrantLock nymLock = new ReentrantLock();
+	final Map<String, ReentrantLock> accountLocks = new HashMap<String, ReentrantLock>();
+	// transaction numbers of prepared transfers, guarded by nymLock
+	final LongSet reservedNums = new LongSet();
 	List<ScriptFilter> filters;
+	final ParseCache<RecipientKey> recipientKeys = new ParseCache<RecipientKey>(ParseCache.DEFAULT_SIZE);
+	// last copies of state nums and their encoded attachment, reused while unchanged; guarded by nymLock
+	OT.NumList transactionNumList, issuedNumList;
+	LongSet attachedTransactionNums, attachedIssuedNums;
+	OT.ArmoredString numsAttachment;
 
 	public EClient(File dir, ConnectionInfo connInfo) {
 		super();
@@ -113,16 +163,31 @@ public class EClient implements Closeable, ReqNumManager {
 
 	@SuppressWarnings("unchecked")
 	public void init() {
+		initStarted = System.nanoTime();
 		this.dir.mkdirs();
 		boolean newUserAccount = false;
-		// user account
+		// binary snapshot
 		UserAccount uacc = null;
-		try {
-			uacc = Engines.gson.fromJson(Utils.read(new File(dir, userAccountFile)), BasicUserAccount.class);
-			logger.info("local user account loaded");
-		} catch (Exception e) {
-			logger.warn("loading user account: {}", e.toString());
-		}
+		boolean fromSnapshot = false;
+		File snapshotFile = new File(dir, EClient.snapshotFile);
+		if (snapshotFile.exists())
+			try {
+				Snapshots.Snapshot snap = Snapshots.read(snapshotFile, MMAP_SNAPSHOT);
+				uacc = snap.userAccount;
+				state = snap.state;
+				fromSnapshot = true;
+				logger.info("snapshot loaded");
+			} catch (Exception e) {
+				logger.warn("loading snapshot: {}", e.toString());
+			}
+		// user account
+		if (uacc == null)
+			try {
+				uacc = Engines.gson.fromJson(Utils.read(new File(dir, userAccountFile)), BasicUserAccount.class);
+				logger.info("local user account loaded");
+			} catch (Exception e) {
+				logger.warn("loading user account: {}", e.toString());
+			}
 		if (uacc == null) {
 			logger.info("creating local user account");
 			uacc = new BasicUserAccount().generate();
@@ -136,7 +201,7 @@ public class EClient implements Closeable, ReqNumManager {
 		}
 
 		// state
-		if (!newUserAccount)
+		if (!newUserAccount && !fromSnapshot)
 			try {
 				state = Engines.gson.fromJson(Utils.read(new File(dir, stateFile)), State.class);
 				logger.info("state loaded");
@@ -150,17 +215,47 @@ public class EClient implements Closeable, ReqNumManager {
 			state.transactionNums = new OT.NumList(connInfo.getID());
 			state.issuedNums = new OT.NumList(connInfo.getID());
 			*/
-			state.transactionNums = new LinkedList<Long>();
-			state.issuedNums = new LinkedList<Long>();
+			state.transactionNums = new LongSet();
+			state.issuedNums = new LongSet();
+		}
+		if (state.nymboxHandled == null)
+			state.nymboxHandled = new LongSet();
+		if (state.accounts == null) {
+			state.accounts = new LinkedHashMap<String, String>();
+			if (state.accountID != null)
+				state.accounts.put(state.accountID, state.assetType);
+		}
+		logger.info("account and state loaded from {} in {} ms", fromSnapshot ? "snapshot" : "json",
+				(System.nanoTime() - initStarted) / 1000000);
+		File journalFile = new File(dir, EClient.journalFile);
+		if (newUserAccount)
+			journalFile.delete();
+		journal = new StateJournal(journalFile);
+		try {
+			journal.open(state);
+		} catch (IOException e) {
+			logger.error("opening state journal", e);
+			throw new RuntimeException(e);
 		}
 
 		logger.info("creating client");
-		client = new Client(uacc, connInfo.getID(), connInfo.getPublicKey(), new JeromqTransport(
-				connInfo.getEndpoint()), connInfo.getNymID());
+		client = new Client(uacc, connInfo.getID(), connInfo.getPublicKey(), transport != null ? transport
+				: new JeromqTransport(connInfo.getEndpoint()), connInfo.getNymID());
 		client.setReqNumManager(this);
+		if (executor != null)
+			client.setExecutor(executor);
+		client.setBoxReceiptCache(new BoxReceiptCache(new File(dir, receiptsDir), BoxReceiptCache.DEFAULT_MEMORY_SIZE));
+		if (VERIFY_RESPONSES) {
+			SignatureVerifier verifier = new SignatureVerifier(SignatureVerifier.signingKey(connInfo),
+					client.getExecutor());
+			verifier.setStrict(true);
+			client.setVerifier(verifier);
+		}
 		if (filters != null)
 			for (ScriptFilter f : filters)
 				client.addFilter(f, f.getType(), f.getPriority() == null ? 0 : f.getPriority());
+		if (!fromSnapshot && BINARY_SNAPSHOT)
+			saveState();// import json
 
 		// if accountID is null or asset different than saved than create new one
 		if (state.accountID == null || (assetType != null && !state.assetType.equals(assetType)) || createNewAccount) {
@@ -171,15 +266,9 @@ public class EClient implements Closeable, ReqNumManager {
 			}
 			if (state.accountID != null)
 				logger.warn("assetType differs from current state asset");
-			logger.info("creating asset account");
-			MSG.CreateAccountResp resp = client.createAccount(assetType);
-			if (!resp.getSuccess()) {
-				String msg = "cannot create asset account";
-				logger.error(msg);
-				throw new IllegalStateException(msg);
-			}
-			state.accountID = resp.getAccountID();
-			state.assetType = resp.getNewAccount().getAssetTypeID();
+			state.accountID = createAccount(assetType);
+			state.assetType = state.accounts.get(state.accountID);
+			journalState();
 		}
 		logger.info("init done\nnymID: {}\naccountID: {}\nassetID: {}", new Object[] {
 				client.getUserAccount().getNymID(), state.accountID, state.assetType });
@@ -203,14 +292,17 @@ public class EClient implements Closeable, ReqNumManager {
 	public void close() throws IOException {
 		if (client != null)
 			client.close();
+		if (journal != null)
+			journal.close();
 	}
 
 	@Override
-	public Long getReqNum(Client client) {
+	public synchronized Long getReqNum(Client client) {
 		if (reqNum != null)
 			return reqNum++;
 		try {
 			reqNum = client.getRequestRaw();
+			logger.info("first request {} ms after init start", (System.nanoTime() - initStarted) / 1000000);
 		} catch (Client.NotInEnvelopeException e) {
 			logger.warn("probably have no user account at that server: register from local data");
 			if (!createUserAccount().getSuccess())
@@ -220,37 +312,284 @@ public class EClient implements Closeable, ReqNumManager {
 		return reqNum++;
 	}
 
+	/**
+	 * writes state snapshot (atomically) and starts the journal over; state.json is written too, so falling back to
+	 * it when the snapshot can't be read loses nothing
+	 */
 	public void saveState() {
+		nymLock.lock();
 		try {
-			Utils.writeDirs(new File(dir, stateFile), Engines.gson.toJson(state));
+			state.generation++;
+			UserAccount uacc = client == null ? null : client.getUserAccount();
+			if (BINARY_SNAPSHOT && uacc instanceof BasicUserAccount)
+				Snapshots.write(new File(dir, snapshotFile), (BasicUserAccount) uacc, state);
+			Utils.writeAtomic(new File(dir, stateFile), Engines.gson.toJson(state));
+			if (journal != null)
+				journal.reset(state);
 			logger.info("state saved");
 		} catch (IOException e) {
 			logger.error("saving state", e);
 			throw new RuntimeException(e);
+		} finally {
+			nymLock.unlock();
 		}
 	}
 
+	/**
+	 * writes user account and state as JSON (readable, importable by init when there's no snapshot)
+	 */
+	public void exportJson() {
+		nymLock.lock();
+		try {
+			Utils.writeAtomic(new File(dir, userAccountFile), Engines.gson.toJson(client.getUserAccount()));
+			Utils.writeAtomic(new File(dir, stateFile), Engines.gson.toJson(state));
+		} catch (IOException e) {
+			logger.error("exporting json", e);
+			throw new RuntimeException(e);
+		} finally {
+			nymLock.unlock();
+		}
+	}
+
+	/**
+	 * creates another asset account of the nym, sharing nym, session and transaction numbers with others
+	 * 
+	 * @return new accountID
+	 */
+	public String createAccount(String assetType) {
+		logger.info("creating asset account");
+		MSG.CreateAccountResp resp = client.createAccount(assetType);
+		if (!resp.getSuccess()) {
+			String msg = "cannot create asset account";
+			logger.error(msg);
+			throw new IllegalStateException(msg);
+		}
+		nymLock.lock();
+		try {
+			state.accounts.put(resp.getAccountID(), resp.getNewAccount().getAssetTypeID());
+			journalState();
+		} finally {
+			nymLock.unlock();
+		}
+		return resp.getAccountID();
+	}
+
+	/**
+	 * @return accountID -> assetType
+	 */
+	public Map<String, String> getAccounts() {
+		nymLock.lock();
+		try {
+			return new LinkedHashMap<String, String>(state.accounts);
+		} finally {
+			nymLock.unlock();
+		}
+	}
+
+	/**
+	 * @return first account of the asset, null if none
+	 */
+	public String getAccountID(String assetType) {
+		if (assetType.equals(state.assetType) && state.accountID != null)
+			return state.accountID;
+		for (Entry<String, String> e : getAccounts().entrySet())
+			if (assetType.equals(e.getValue()))
+				return e.getKey();
+		return null;
+	}
+
+	public String getAccountID() {
+		return state.accountID;
+	}
+
 	public boolean notarizeTransaction(String sendTo, long amount) throws Exception {
+		return notarizeTransaction(state.accountID, sendTo, amount);
+	}
+
+	public boolean notarizeTransaction(String accountID, String sendTo, long amount) throws Exception {
+		return submitTransfer(new PreparedTransfer(accountID, sendTo, amount));
+	}
+
+	/**
+	 * Transfer signed ahead by {@link EClient#prepareTransfer(String, String, long)}, holds its transaction number
+	 * until submitted or cancelled.
+	 */
+	public static class PreparedTransfer {
+		final String accountID;
+		final String sendTo;
+		final long amount;
+		// signed ahead, against the projected balance
+		boolean prepared;
+		Long transactionNum;
+		// signed against
+		OT.Account account;
+		long balance;
+		OT.User nums;
+		OT.NumList transactionNums, issuedNums;// copies, nums lists are shared and change
+		OT.Ledger ledger;
+		boolean balanceRejected;
+		boolean done;
+
+		PreparedTransfer(String accountID, String sendTo, long amount) {
+			this.accountID = accountID;
+			this.sendTo = sendTo;
+			this.amount = amount;
+		}
+
+		// get/set
+
+		public String getAccountID() {
+			return accountID;
+		}
+
+		public String getSendTo() {
+			return sendTo;
+		}
+
+		public long getAmount() {
+			return amount;
+		}
+
+		public Long getTransactionNum() {
+			return transactionNum;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+	}
+
+	/**
+	 * Processes inbox, fetches outbox and account and signs the transfer against them and a reserved transaction
+	 * number, so {@link #submitTransfer(PreparedTransfer)} only seals and sends it.
+	 */
+	public PreparedTransfer prepareTransfer(String accountID, String sendTo, long amount) throws Exception {
+		PreparedTransfer t = new PreparedTransfer(accountID, sendTo, amount);
+		t.prepared = true;
+		ReentrantLock accountLock = accountLock(accountID);
+		accountLock.lock();
+		try {
+			sign(t);
+		} finally {
+			accountLock.unlock();
+		}
+		return t;
+	}
+
+	/**
+	 * Sends the prepared transfer. It is signed again first when the account or nums changed since signing, and once
+	 * more against the fetched account when the server rejects the balance statement.
+	 */
+	public boolean submitTransfer(PreparedTransfer t) throws Exception {
+		ReentrantLock accountLock = accountLock(t.accountID);
+		accountLock.lock();
+		try {
+			if (t.done)
+				throw new IllegalStateException("transfer submitted already");
+			Boolean ret = null;
+			boolean retried = false;
+			while (ret == null) {
+				nymLock.lock();
+				try {
+					if (!stale(t)) {
+						boolean accepted = notarizeTransaction(t, cachedNymbox.getNymboxHash());
+						if (accepted || retried || !t.balanceRejected) {
+							t.done = true;
+							ret = accepted;
+						} else {
+							logger.warn("balance of transfer rejected, signing again against fetched account");
+							retried = true;
+						}
+					}
+				} finally {
+					nymLock.unlock();
+				}
+				if (ret == null)
+					sign(t);
+			}
+			processCurrentNymbox();
+			return ret;
+		} finally {
+			release(t);
+			accountLock.unlock();
+		}
+	}
+
+	/**
+	 * frees transaction number of the transfer that won't be submitted
+	 */
+	public void cancelTransfer(PreparedTransfer t) {
+		t.done = true;
+		release(t);
+	}
+
+	private void sign(PreparedTransfer t) throws Exception {
 		//ensureTransNums();
-		processInbox();
-		OT.Ledger outboxLedger = client.getOutbox(state.accountID).getOutboxLedger();
-		String nymboxHash = cachedNymbox.getNymboxHash();
-		OT.Account account = client.getAccount(state.accountID).getAssetAccount();
-		logger.info("balance: {}", account.getBalance().getAmount());
-		boolean ret = notarizeTransaction(sendTo, amount, account, outboxLedger, nymboxHash);
-		processNymbox();
-		return ret;
+		processInbox(t.accountID);
+		OT.Ledger outboxLedger = getOutbox(t.accountID);
+		// transfer signed ahead uses balance after our own transfers and processed inboxes, fetched only when not known
+		OT.Account account = t.prepared ? getCachedAccount(t.accountID) : null;
+		Long balance = t.prepared ? mirror.getProjectedBalance(t.accountID) : null;
+		if (account == null || balance == null) {
+			account = cacheAccount(client.getAccount(t.accountID).getAssetAccount());
+			balance = mirror.getProjectedBalance(t.accountID);
+		}
+		logger.info("balance: {}", balance);
+		nymLock.lock();
+		try {
+			if (t.transactionNum == null || !state.transactionNums.contains(t.transactionNum)) {
+				release(t);
+				t.transactionNum = reserveTransactionNum();
+			}
+			t.balanceRejected = false;
+			sign(t, account, balance, outboxLedger);
+		} finally {
+			nymLock.unlock();
+		}
+	}
+
+	/*
+	 * signed against other nums or balance than there are now
+	 */
+	private boolean stale(PreparedTransfer t) {
+		return t.ledger == null || !state.transactionNums.contains(t.transactionNum)
+				|| !state.transactionNums.equals(t.transactionNums) || !state.issuedNums.equals(t.issuedNums)
+				|| !Long.valueOf(t.balance).equals(mirror.getProjectedBalance(t.accountID));
+	}
+
+	Long reserveTransactionNum() {
+		Long num = freeTransactionNum();
+		reservedNums.add(num);
+		return num;
+	}
+
+	/*
+	 * smallest transaction number not held by a prepared transfer; nymLock held
+	 */
+	Long freeTransactionNum() {
+		for (long num : state.transactionNums.toLongArray())
+			if (!reservedNums.contains(num))
+				return num;
+		throw new IllegalStateException("no free transaction number");
+	}
+
+	private void release(PreparedTransfer t) {
+		nymLock.lock();
+		try {
+			if (t.transactionNum != null)
+				reservedNums.remove(t.transactionNum.longValue());
+		} finally {
+			nymLock.unlock();
+		}
 	}
 
-	private boolean notarizeTransaction(String sendTo, long amount, OT.Account acc, OT.Ledger outboxLedger,
-			String nymboxHash)
-			throws Exception {
+	private void sign(PreparedTransfer t, OT.Account acc, long accBalance, OT.Ledger outboxLedger) {
 
 		List<OT.TransactionReport> reports = makeOutboxReports(outboxLedger);
 
 		PrivateKey signingKey = client.getUserAccount().getCpairs().get("S").getPrivate();
 		OT.User nums = makeNums();
-		Long transactionNum = state.transactionNums.peek();
+		Long transactionNum = t.transactionNum;
 
 		OT.Ledger ledger = from(acc);
 		ledger.setType(OT.Ledger.Type.message);
@@ -264,8 +603,8 @@ public class EClient implements Closeable, ReqNumManager {
 		OT.Item transfer = from(otx);
 		transfer.setType(OT.Item.Type.transfer);
 		transfer.setStatus(OT.Item.Status.request);
-		transfer.setAmount(amount);
-		transfer.setToAccountID(sendTo);
+		transfer.setAmount(t.amount);
+		transfer.setToAccountID(t.sendTo);
 		transfer.setNumberOfOrigin(0l);//hver
 		transfer.setInReferenceTo(null);//hver
 
@@ -275,8 +614,8 @@ public class EClient implements Closeable, ReqNumManager {
 		OT.Item balance = from(otx);
 		balance.setType(OT.Item.Type.balanceStatement);
 		balance.setStatus(OT.Item.Status.request);
-		balance.setAmount(acc.getBalance().getAmount() - transfer.getAmount());
-		balance.setAttachment(new OT.ArmoredString(Engines.xstream.toXML(nums)));
+		balance.setAmount(accBalance - transfer.getAmount());
+		balance.setAttachment(makeNumsAttachment(nums));
 		balance.setNumberOfOrigin(0l);//hver
 		balance.setInReferenceTo(null);//hver
 
@@ -294,65 +633,204 @@ public class EClient implements Closeable, ReqNumManager {
 		Engines.render(ledger, signingKey);
 
 		//System.out.println(json(tx));
+		t.account = acc;
+		t.balance = accBalance;
+		t.nums = nums;
+		t.transactionNums = new OT.NumList(nums.getTransactionNums());
+		t.issuedNums = new OT.NumList(nums.getIssuedNums());
+		t.ledger = ledger;
+	}
 
-		MSG.NotarizeTransactionsResp resp = client.notarizeTransaction(ledger, nymboxHash);
+	private boolean notarizeTransaction(PreparedTransfer t, String nymboxHash) throws Exception {
+		OT.User nums = t.nums;
+		Long transactionNum = t.transactionNum;
+		mirror.pending(t.accountID, transactionNum, -t.amount);
+		boolean accepted = false;
+		try {
+			MSG.NotarizeTransactionsResp resp = client.notarizeTransaction(t.ledger, nymboxHash);
 
-		logger.info("notarize transaction success: {}", resp.getSuccess());
-		boolean balanceRejected = false;
-		if (resp.getSuccess()) {
-			//takeNumsFrom(nums);
-			if (resp.getResponseLedger().getTransactions().size() != 1)
-				logger.warn("notarize response ledger contains other than 1 tx: "
-						+ resp.getResponseLedger().getTransactions().size());
-			OT.Transaction tx = resp.getResponseLedger().getTransactions().iterator().next();
-			if (tx.getItems() == null) {//TODO check this, android only!
-				logger.error("tx.getItems() == null");
-				balanceRejected = true;
-			} else
-				for (OT.Item item : tx.getItems())
-					if (item.getType() == OT.Item.Type.atBalanceStatement) {
-						if (item.getStatus() == OT.Item.Status.rejection) {
-							logger.warn("notarize balance rejected");
+			logger.info("notarize transaction success: {}", resp.getSuccess());
+			boolean balanceRejected = false;
+			if (resp.getSuccess()) {
+				//takeNumsFrom(nums);
+				if (resp.getResponseLedger().getTransactions().size() != 1)
+					logger.warn("notarize response ledger contains other than 1 tx: "
+							+ resp.getResponseLedger().getTransactions().size());
+				OT.Transaction tx = resp.getResponseLedger().getTransactions().iterator().next();
+				if (tx.getItems() == null) {//TODO check this, android only!
+					logger.error("tx.getItems() == null");
+					balanceRejected = true;
+				} else
+					for (OT.Item item : tx.getItems())
+						if (item.getType() == OT.Item.Type.atBalanceStatement) {
+							if (item.getStatus() == OT.Item.Status.rejection) {
+								logger.warn("notarize balance rejected");
+								balanceRejected = true;
+								t.balanceRejected = true;
+								break;
+							}
+						} else if (item.getStatus() == OT.Item.Status.rejection) {
+							logger.warn("notarize transaction item rejected");
 							balanceRejected = true;
 							break;
 						}
-					} else if (item.getStatus() == OT.Item.Status.rejection) {
-						logger.warn("notarize transaction item rejected");
-						balanceRejected = true;
-						break;
-					}
 
-			nums.transactionNums.removeNum(transactionNum);
-			if (balanceRejected)
-				nums.issuedNums.removeNum(transactionNum);
-			takeNumsFrom(nums);
+				nums.transactionNums.removeNum(transactionNum);
+				if (balanceRejected)
+					nums.issuedNums.removeNum(transactionNum);
+				takeNumsFrom(nums);
+			}
+			accepted = resp.getSuccess() && !balanceRejected;
+			return accepted;
+		} finally {
+			if (accepted)
+				mirror.transferred(t.accountID, transactionNum);
+			else if (t.balanceRejected)
+				mirror.reset(t.accountID);// projected balance may be the wrong one, fetch it next time
+			else
+				mirror.rejected(t.accountID, transactionNum);
 		}
-		return resp.getSuccess() && !balanceRejected;
 	}
 
 	public void reloadState() {
-		logger.info("before {}", Engines.gson.toJson(makeNums()));
-		takeNumsFrom(createUserAccount().getNymfile().getEntity());
-		logger.info("after {}", Engines.gson.toJson(makeNums()));
+		nymLock.lock();
+		try {
+			logger.info("before {}", Engines.gson.toJson(makeNums()));
+			takeNumsFrom(createUserAccount().getNymfile().getEntity());
+			logger.info("after {}", Engines.gson.toJson(makeNums()));
+		} finally {
+			nymLock.unlock();
+		}
 	}
 
 	public OT.Account getAccount() {
-		return cachedAccount = client.getAccount(state.accountID).getAssetAccount();
+		return getAccount(state.accountID);
+	}
+
+	public OT.Account getAccount(String accountID) {
+		return cacheAccount(client.getAccount(accountID).getAssetAccount());
+	}
+
+	private OT.Ledger getOutbox(String accountID) {
+		MSG.GetOutboxResp outbox = client.getOutbox(accountID);
+		mirror.outbox(accountID, outbox.getOutboxLedger(), outbox.getOutboxHash());
+		return outbox.getOutboxLedger();
 	}
 
+	/**
+	 * @return balance of default account from local mirror, null if not known yet
+	 */
+	public Long getBalance() {
+		return mirror.getBalance(state.accountID);
+	}
+
+	public Long getBalance(String accountID) {
+		return mirror.getBalance(accountID);
+	}
+
+	/**
+	 * balance, inbox and outbox records known locally, no network
+	 */
+	public LedgerMirror getMirror() {
+		return mirror;
+	}
+
+
 	public void processInbox() {
-		logger.info("processInbox()");
-		ensureTransNums();
-		MSG.GetInboxResp inbox = client.getInbox(state.accountID);
-		if (!inbox.getSuccess())
-			throw new RuntimeException("get inbox failed");
-		OT.Ledger inboxLedger = inbox.getInboxLedger();
-		if (inboxLedger.getInboxRecords() == null)
-			return;
-		OT.Ledger outboxLedger = client.getOutbox(state.accountID).getOutboxLedger();
-		OT.Account account = client.getAccount(state.accountID).getAssetAccount();
-		processInbox(inboxLedger, account, outboxLedger);
-		processNymbox();
+		processInbox(state.accountID);
+	}
+
+	public void processInbox(String accountID) {
+		logger.info("processInbox({})", accountID);
+		ReentrantLock accountLock = accountLock(accountID);
+		accountLock.lock();
+		try {
+			ensureTransNums();
+			MSG.GetInboxResp inbox = client.getInbox(accountID);
+			if (!inbox.getSuccess())
+				throw new RuntimeException("get inbox failed");
+			OT.Ledger inboxLedger = inbox.getInboxLedger();
+			mirror.inbox(accountID, inboxLedger, inbox.getInboxHash());
+			if (inboxLedger.getInboxRecords() == null)
+				return;
+			OT.Ledger outboxLedger = getOutbox(accountID);
+			OT.Account account = cacheAccount(client.getAccount(accountID).getAssetAccount());
+			awaitHooks();
+			nymLock.lock();
+			try {
+				processInbox(inboxLedger, account, outboxLedger);
+			} finally {
+				nymLock.unlock();
+			}
+			processCurrentNymbox();
+		} finally {
+			accountLock.unlock();
+		}
+	}
+
+	/**
+	 * processes inboxes of all accounts
+	 */
+	public void processInboxes() {
+		processInboxes(state.accounts.keySet());
+	}
+
+	/**
+	 * Inboxes, outboxes and balances of all accounts are fetched in one pipelined batch on the session. Process
+	 * requests themselves go one after other: each balance statement lists the issued numbers left by the previous
+	 * one.
+	 */
+	public void processInboxes(Collection<String> accountIDs) {
+		logger.info("processInboxes({})", accountIDs);
+		List<String> ids = new ArrayList<String>(accountIDs);
+		Collections.sort(ids);
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>(ids.size());
+		try {
+			for (String id : ids) {
+				ReentrantLock lock = accountLock(id);
+				lock.lock();
+				locks.add(lock);
+			}
+			ensureTransNums();
+			List<Client.AccountFiles> files = client.getAccountFiles(ids, Client.DEFAULT_CONCURRENCY);
+			for (int i = 0; i < ids.size(); i++) {
+				Client.AccountFiles f = files.get(i);
+				if (f.inbox == null || f.outbox == null || f.account == null) {
+					logger.warn("no response for files of account {}, skipped", ids.get(i));
+					continue;
+				}
+				if (!f.inbox.getSuccess())
+					throw new RuntimeException("get inbox failed: " + ids.get(i));
+				OT.Account account = cacheAccount(f.account.getAssetAccount());
+				OT.Ledger inboxLedger = f.inbox.getInboxLedger();
+				mirror.inbox(ids.get(i), inboxLedger, f.inbox.getInboxHash());
+				mirror.outbox(ids.get(i), f.outbox.getOutboxLedger(), f.outbox.getOutboxHash());
+				if (inboxLedger.getInboxRecords() == null)
+					continue;
+				if (state.transactionNums.size() < 2)
+					ensureTransNums();
+				awaitHooks();
+				nymLock.lock();
+				try {
+					processInbox(inboxLedger, account, f.outbox.getOutboxLedger());
+				} finally {
+					nymLock.unlock();
+				}
+				processCurrentNymbox();
+			}
+		} finally {
+			for (int i = locks.size() - 1; i >= 0; i--)
+				locks.get(i).unlock();
+		}
+	}
+
+	ReentrantLock accountLock(String accountID) {
+		synchronized (accountLocks) {
+			ReentrantLock lock = accountLocks.get(accountID);
+			if (lock == null)
+				accountLocks.put(accountID, lock = new ReentrantLock());
+			return lock;
+		}
 	}
 
 	private void processInbox(OT.Ledger inboxLedger, OT.Account assetAcount, OT.Ledger outboxLedger) {
@@ -365,7 +843,8 @@ public class EClient implements Closeable, ReqNumManager {
 			PrivateKey signingKey = client.getUserAccount().getCpairs().get("S").getPrivate();
 			OT.User nums = makeNums();
 			//System.out.println(json(nums));
-			Long transactionNum = state.transactionNums.peek();
+			// not the one of a prepared transfer, it would have to get another
+			Long transactionNum = freeTransactionNum();
 
 			//Long transactionNum = getNum(nym);
 
@@ -389,6 +868,7 @@ public class EClient implements Closeable, ReqNumManager {
 
 			// create new list
 			ptx.setItems(new ArrayList<OT.Item>());
+			List<OT.BoxRecord> accepted = new ArrayList<OT.BoxRecord>();
 
 			for (OT.BoxRecord rec : inboxLedger.getInboxRecords()) {
 				OT.Item item;
@@ -407,6 +887,7 @@ public class EClient implements Closeable, ReqNumManager {
 					nums.getIssuedNums().removeNum(rec.getInRefDisplay());
 					Engines.render(item, signingKey);
 					ptx.getItems().add(item);
+					accepted.add(rec);
 					break;
 				case transferReceipt:
 					item = from(ptx);
@@ -419,6 +900,7 @@ public class EClient implements Closeable, ReqNumManager {
 					nums.getIssuedNums().removeNum(rec.getInRefDisplay());
 					Engines.render(item, signingKey);
 					ptx.getItems().add(item);
+					accepted.add(rec);
 					break;
 				default:
 					System.err.println(json(rec));
@@ -433,7 +915,7 @@ public class EClient implements Closeable, ReqNumManager {
 			balance.setType(OT.Item.Type.balanceStatement);
 			balance.setInReferenceTo(null);//hver
 			//System.out.println(json(nums));
-			balance.setAttachment(new OT.ArmoredString(Engines.xstream.toXML(nums)));
+			balance.setAttachment(makeNumsAttachment(nums));
 			if (reports.size() > 0)
 				balance.setTransactionReport(reports);
 
@@ -471,6 +953,8 @@ public class EClient implements Closeable, ReqNumManager {
 					nums.getTransactionNums().removeNum(transactionNum);
 					nums.getIssuedNums().removeNum(transactionNum);
 					takeNumsFrom(nums);
+					dropReceipts(inboxLedger, accepted);
+					mirror.inboxProcessed(inboxLedger.getAccountID(), accepted, balanceAmount);
 				}
 				//removeTransactioNum(transactionNum);
 			}
@@ -478,43 +962,186 @@ public class EClient implements Closeable, ReqNumManager {
 	}
 
 	public void ensureTransNums() {
-		processNymbox();
-		if (state.transactionNums.size() < 30) {
-			logger.info("sending request for new trans#");
-			if (!client.getTransactionNum(cachedNymbox.getNymboxHash()).getSuccess()) {
-				logger.error("couldn't get new trans#");
-				throw new IllegalStateException("why?");
+		processCurrentNymbox();
+		boolean requested = false;
+		nymLock.lock();
+		try {
+			if (state.transactionNums.size() < 30) {
+				logger.info("sending request for new trans#");
+				if (!client.getTransactionNum(cachedNymbox.getNymboxHash()).getSuccess()) {
+					logger.error("couldn't get new trans#");
+					throw new IllegalStateException("why?");
+				}
+				requested = true;
 			}
-			processNymbox();// accept blank
-			processNymbox();// accept successNotice
+		} finally {
+			nymLock.unlock();
 		}
+		if (requested)
+			processCurrentNymbox();// accept blank, then successNotice
+	}
+
+	/*
+	 * Lets hooks handle the responses given so far (they may fetch receipts of records about to be accepted). Hooks
+	 * may call the client back, so nymLock is released meanwhile; lock held by a caller further up can't be, there's
+	 * no wait then.
+	 * 
+	 * @return true if nymLock was released meanwhile
+	 */
+	private boolean awaitHooks() {
+		if (nymLock.getHoldCount() > 1) {
+			logger.debug("nymLock held by caller, not waiting for hooks");
+			return false;
+		}
+		boolean held = nymLock.isHeldByCurrentThread();
+		if (held)
+			nymLock.unlock();
+		try {
+			if (!client.awaitHooks(HOOKS_TIMEOUT))
+				logger.warn("hooks still busy, going on anyway");
+		} finally {
+			if (held)
+				nymLock.lock();
+		}
+		return held;
 	}
 
 	public MSG.GetNymboxResp getNymbox() {
 		logger.info("getNymbox()");
-		return cachedNymbox = client.getNymbox();
+		long changes = client.getChanges();
+		cachedNymbox = client.getNymbox();
+		cachedNymboxChanges = changes;
+		return cachedNymbox;
 	}
 
+	/**
+	 * fetches fresh nymbox and processes it
+	 */
 	public MSG.ProcessNymboxResp processNymbox() {
 		return processNymbox(true);
 	}
 
+	/*
+	 * processes cached nymbox (fetched after last processing) while it's current, fresh one otherwise; for rounds
+	 * inside box processing, records of other nyms are seen by the next processNymbox()
+	 */
+	private MSG.ProcessNymboxResp processCurrentNymbox() {
+		return processNymbox(!isNymboxCurrent());
+	}
+
+	/*
+	 * no response changed anything since the fetch and server reports no other hash
+	 */
+	boolean isNymboxCurrent() {
+		MSG.GetNymboxResp nymbox = cachedNymbox;
+		if (nymbox == null || cachedNymboxChanges != client.getChanges())
+			return false;
+		String hash = client.getNymboxHash();
+		return hash == null || hash.equals(nymbox.getNymboxHash());
+	}
+
+	/**
+	 * Accepts new nymbox records, again on the nymbox fetched after processing while it brings new ones (a blank is
+	 * followed by successNotice).
+	 * 
+	 * @return last process response, null if there was nothing new
+	 */
 	public MSG.ProcessNymboxResp processNymbox(boolean getFresh) {
 		logger.info("processNymbox({})", getFresh);
-		if (getFresh || cachedNymbox == null)
-			getNymbox();
-		if (cachedNymbox.getNymboxLedger().getNumPartialRecords() > 1)
-			return processCachedNymbox();
-		else
-			return null;
+		nymLock.lock();
+		try {
+			MSG.GetNymboxResp nymbox = cachedNymbox;
+			if (getFresh || nymbox == null)
+				nymbox = getNymbox();
+			MSG.ProcessNymboxResp resp = null;
+			for (int i = 0; i < NYMBOX_ROUNDS && nymbox.getNymboxLedger().getNumPartialRecords() > 1; i++) {
+				List<OT.BoxRecord> records = newNymboxRecords(nymbox.getNymboxLedger());
+				if (records.isEmpty())
+					break;
+				if (awaitHooks() && (nymbox != cachedNymbox || !isNymboxCurrent())) {
+					nymbox = getNymbox();// changed while waiting
+					continue;
+				}
+				resp = processCachedNymbox(nymbox, records);
+				nymbox = cachedNymbox;
+			}
+			return resp;
+		} finally {
+			nymLock.unlock();
+		}
+	}
+
+	/*
+	 * records not handled yet, forgets handled ones that are gone from nymbox
+	 */
+	private List<OT.BoxRecord> newNymboxRecords(OT.Ledger nymled) {
+		List<OT.BoxRecord> records = new ArrayList<OT.BoxRecord>();
+		LongSet present = new LongSet();
+		if (nymled.nymboxRecords != null)
+			for (OT.BoxRecord nr : nymled.nymboxRecords) {
+				present.add(nr.transactionNum);
+				if (state.nymboxHandled.contains(nr.transactionNum))
+					continue;
+				// acknowledged in ackReplies already, the server drops it
+				if (nr.type == OT.Transaction.Type.replyNotice && nr.requestNumber != null
+						&& client.isReplyAcknowledged(nr.requestNumber))
+					continue;
+				records.add(nr);
+			}
+		if (state.nymboxHandled.retainAll(present))
+			journalState();
+		return records;
 	}
 
 	public boolean sendUserMessage(String nymID, String text) {
+		PublicKey recipientPublicKey = getRecipientPublicKey(nymID);
+		if (recipientPublicKey == null)
+			return false;
+		MSG.SendUserMessageResp resp = getClient().sendUserMessage(text,
+				nymID, recipientPublicKey);
+		return resp.getSuccess();
+	}
+
+	/**
+	 * sends the same text to all nyms, sealed once
+	 * 
+	 * @return nymID -> success
+	 */
+	public Map<String, Boolean> sendUserMessage(Collection<String> nymIDs, String text) {
+		Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		Map<String, PublicKey> recipients = new LinkedHashMap<String, PublicKey>();
+		for (String nymID : nymIDs) {
+			result.put(nymID, false);
+			PublicKey key = getRecipientPublicKey(nymID);
+			if (key != null)
+				recipients.put(nymID, key);
+		}
+		if (recipients.isEmpty())
+			return result;
+		List<MSG.SendUserMessageResp> resps = getClient().sendUserMessages(text, recipients);
+		int i = 0;
+		for (String nymID : recipients.keySet()) {
+			MSG.SendUserMessageResp resp = resps.get(i++);
+			result.put(nymID, resp != null && resp.getSuccess());
+		}
+		return result;
+	}
+
+	/**
+	 * encryption key of the nym, kept for {@link #RECIPIENT_KEY_TTL} so bulk messaging doesn't checkUser every time
+	 * 
+	 * @return null if not found
+	 */
+	public PublicKey getRecipientPublicKey(String nymID) {
+		long now = System.currentTimeMillis();
+		RecipientKey rk = recipientKeys.get(nymID);
+		if (rk != null && rk.expires > now)
+			return rk.key;
 		MSG.CheckUserResp cu = getClient().checkUser(nymID);
 		if (!cu.getSuccess()) {
 			String msg = "recipient not found";
 			logger.error(msg);
-			return false;
+			return null;
 		}
 		PublicKey recipientPublicKey = null;
 		if (cu.getHasCredentials()) {
@@ -528,12 +1155,12 @@ public class EClient implements Closeable, ReqNumManager {
 			List<OT.KeyValue> list = cred.getMasterSigned().getPublicContents().getPublicInfos();
 			for (OT.KeyValue kv : list) {
 				if (kv.getKey().equals("E"))
-					recipientPublicKey = Utils.fromRawPublicInfo(kv.getValue(), false);
+					recipientPublicKey = ParseCache.publicKey(kv.getValue(), false);
 			}
 			if (recipientPublicKey == null) {
 				String msg = "recipient encryption key not found";
 				logger.error(msg);
-				return false;
+				return null;
 			}
 		} else {
 			String str = Utils.unarmor(cu.getNymPublicKey(), true);
@@ -543,19 +1170,21 @@ public class EClient implements Closeable, ReqNumManager {
 				recipientPublicKey = Utils.pemReadRSAPublicKey(str);
 			} catch (Exception e) {
 				logger.error("reading nymm public key", e);
-				return false;
+				return null;
 			}
 
 		}
-		MSG.SendUserMessageResp resp = getClient().sendUserMessage(text,
-				nymID, recipientPublicKey);
-		return resp.getSuccess();
+		rk = new RecipientKey();
+		rk.key = recipientPublicKey;
+		rk.expires = now + RECIPIENT_KEY_TTL;
+		recipientKeys.put(nymID, rk);
+		return recipientPublicKey;
 	}
 
-	private MSG.ProcessNymboxResp processCachedNymbox() {
-		logger.info("processCachedNymbox()");
+	private MSG.ProcessNymboxResp processCachedNymbox(MSG.GetNymboxResp nymbox, List<OT.BoxRecord> records) {
+		logger.info("processCachedNymbox({} records)", records.size());
 
-		OT.Ledger nymled = cachedNymbox.getNymboxLedger();
+		OT.Ledger nymled = nymbox.getNymboxLedger();
 		PrivateKey signingKey = client.getUserAccount().getCpairs().get("S").getPrivate();
 		OT.Ledger otled = new OT.Ledger();
 
@@ -576,61 +1205,67 @@ public class EClient implements Closeable, ReqNumManager {
 		otx.transactionNum = 0l;
 		otx.type = OT.Transaction.Type.processNymbox;
 
-		if (nymled.nymboxRecords != null)
-			for (OT.BoxRecord nr : nymled.nymboxRecords) {
-				//System.out.println(nr.getType());
-				OT.Item item;// = new OT.Item();
-				switch (nr.type) {
-				case message:
-					item = from(otx);
-					item.inReferenceTo = nr.transactionNum;
-					item.type = OT.Item.Type.acceptMessage;
-					item.status = OT.Item.Status.request;
-					Engines.render(item, signingKey);
-					otx.items.add(item);
-					break;
-				case replyNotice:
-					item = from(otx);
-					item.inReferenceTo = nr.transactionNum;
-					item.type = OT.Item.Type.acceptNotice;
-					item.status = OT.Item.Status.request;
-					Engines.render(item, signingKey);
-					otx.items.add(item);
-					break;
-				case blank:
-					item = from(otx);
-					item.inReferenceTo = nr.transactionNum;
-					item.status = OT.Item.Status.request;
-					item.type = OT.Item.Type.acceptTransaction;
-					logger.info("we've got new tx# from server");
-					addIfNotThere(state.transactionNums, nr.totalListOfNumbers);
-					addIfNotThere(state.issuedNums, nr.totalListOfNumbers);
-					item.totalListOfNumbers = nr.totalListOfNumbers;
-					Engines.render(item, signingKey);
-					otx.items.add(item);
-					break;
-				case successNotice:
-					item = from(otx);//TODO hah, need FellowTraveler
-					item.inReferenceTo = nr.transactionNum;
-					item.status = OT.Item.Status.request;
-					item.type = OT.Item.Type.acceptNotice;
-					logger.info("accepted new tx#");
-					addIfNotThere(state.transactionNums, nr.totalListOfNumbers);
-					addIfNotThere(state.issuedNums, nr.totalListOfNumbers);
-					item.totalListOfNumbers = nr.totalListOfNumbers;
-					Engines.render(item, signingKey);
-					otx.items.add(item);
-					break;
-				default:
-					System.err.println(json(nr));
-				}
+		List<OT.BoxRecord> accepted = new ArrayList<OT.BoxRecord>(records.size());
+		for (OT.BoxRecord nr : records) {
+			//System.out.println(nr.getType());
+			OT.Item item;// = new OT.Item();
+			switch (nr.type) {
+			case message:
+				item = from(otx);
+				item.inReferenceTo = nr.transactionNum;
+				item.type = OT.Item.Type.acceptMessage;
+				item.status = OT.Item.Status.request;
+				Engines.render(item, signingKey);
+				otx.items.add(item);
+				break;
+			case replyNotice:
+				item = from(otx);
+				item.inReferenceTo = nr.transactionNum;
+				item.type = OT.Item.Type.acceptNotice;
+				item.status = OT.Item.Status.request;
+				Engines.render(item, signingKey);
+				otx.items.add(item);
+				break;
+			case blank:
+				item = from(otx);
+				item.inReferenceTo = nr.transactionNum;
+				item.status = OT.Item.Status.request;
+				item.type = OT.Item.Type.acceptTransaction;
+				logger.info("we've got new tx# from server");
+				state.transactionNums.addAll(nr.totalListOfNumbers);
+				state.issuedNums.addAll(nr.totalListOfNumbers);
+				item.totalListOfNumbers = nr.totalListOfNumbers;
+				Engines.render(item, signingKey);
+				otx.items.add(item);
+				break;
+			case successNotice:
+				item = from(otx);//TODO hah, need FellowTraveler
+				item.inReferenceTo = nr.transactionNum;
+				item.status = OT.Item.Status.request;
+				item.type = OT.Item.Type.acceptNotice;
+				logger.info("accepted new tx#");
+				state.transactionNums.addAll(nr.totalListOfNumbers);
+				state.issuedNums.addAll(nr.totalListOfNumbers);
+				item.totalListOfNumbers = nr.totalListOfNumbers;
+				Engines.render(item, signingKey);
+				otx.items.add(item);
+				break;
+			default:
+				logger.warn("nymbox record not handled: {}", json(nr));
+				state.nymboxHandled.add(nr.transactionNum);// nothing to do with it
+				continue;
 			}
+			accepted.add(nr);
+		}
+		journalState();
+		if (accepted.isEmpty())
+			return null;
 		OT.Item item = from(otx);
 		item.type = OT.Item.Type.transactionStatement;
 		item.status = OT.Item.Status.request;
 		OT.User nums = makeNums();
 		//System.out.println(json(nums));
-		item.attachment = new OT.ArmoredString(Engines.xstream.toXML(nums));
+		item.attachment = makeNumsAttachment(nums);
 		//System.err.println(item.attachment.getUnarmored());
 		item.transactionNum = 0l;
 		item.inReferenceTo = 0l;
@@ -642,7 +1277,7 @@ public class EClient implements Closeable, ReqNumManager {
 		otled.transactions.add(otx);
 		Engines.render(otled, signingKey);
 
-		MSG.ProcessNymboxResp resp = client.processNymbox(otled, cachedNymbox.getNymboxHash());
+		MSG.ProcessNymboxResp resp = client.processNymbox(otled, nymbox.getNymboxHash());
 		logger.info("process nymbox success: {}", resp.getSuccess());
 		if (resp.getSuccess()) {
 			//takeNumsFrom(nums);
@@ -650,18 +1285,55 @@ public class EClient implements Closeable, ReqNumManager {
 			if (resp.getResponseLedger().getTransactions().size() > 1)
 				logger.warn("nymbox response ledger contains more than 1 tx");
 			OT.Transaction tx = resp.getResponseLedger().getTransactions().iterator().next();
+			List<OT.Item> replies = new ArrayList<OT.Item>();
 			for (OT.Item it : tx.getItems())
-				if (it.getType() == OT.Item.Type.atTransactionStatement)
+				if (it.getType() == OT.Item.Type.atTransactionStatement) {
 					if (it.getStatus() == OT.Item.Status.rejection) {
 						logger.warn("transaction statement rejected");
 						transactionRejected = true;
-						break;
 					}
+				} else
+					replies.add(it);
+			if (!transactionRejected) {
+				List<OT.BoxRecord> handled = new ArrayList<OT.BoxRecord>(accepted.size());
+				for (int i = 0; i < accepted.size(); i++) {
+					OT.BoxRecord nr = accepted.get(i);
+					OT.Item reply = replyFor(nr, replies, i);
+					if (reply != null && reply.getStatus() == OT.Item.Status.acknowledgement)
+						handled.add(nr);
+					else {
+						logger.warn("nymbox record {} ({}) not accepted", nr.transactionNum, nr.type);
+						// numbers of rejected blank aren't ours
+						if (nr.type == OT.Transaction.Type.blank && nr.totalListOfNumbers != null) {
+							state.transactionNums.removeAll(nr.totalListOfNumbers);
+							state.issuedNums.removeAll(nr.totalListOfNumbers);
+						}
+					}
+				}
+				for (OT.BoxRecord nr : handled)
+					state.nymboxHandled.add(nr.transactionNum);
+				journalState();
+				dropReceipts(nymled, handled);
+			}
 		}
-		cachedNymbox = client.getNymbox();
+		getNymbox();// input of next round
 		return resp;
 	}
 
+	/*
+	 * server's reply item for the record: of the expected type referring to it, else the one at record's position
+	 */
+	static OT.Item replyFor(OT.BoxRecord nr, List<OT.Item> replies, int index) {
+		OT.Item.Type type = nr.type == OT.Transaction.Type.message ? OT.Item.Type.atAcceptMessage
+				: nr.type == OT.Transaction.Type.blank ? OT.Item.Type.atAcceptTransaction : OT.Item.Type.atAcceptNotice;
+		for (OT.Item it : replies)
+			if (it.getType() == type && nr.transactionNum != null && nr.transactionNum.equals(it.getInReferenceTo()))
+				return it;
+		if (index < replies.size() && replies.get(index).getType() == type)
+			return replies.get(index);
+		return null;
+	}
+
 	private MSG.CreateUserAccountResp createUserAccount() {
 		MSG.CreateUserAccountResp resp = _createUserAccount();
 		try {
@@ -743,25 +1415,38 @@ public class EClient implements Closeable, ReqNumManager {
 		return client.createUserAccountNew(credentialList, credentials);
 	}
 
-	static void addIfNotThere(List<Long> list, List<Long> toAdd) {
-		for (Long l : toAdd)
-			if (!list.contains(l))
-				list.add(l);
+	private void removeBothNum(Long num) {
+		state.transactionNums.remove(num);
+		state.issuedNums.remove(num);
+		journalState();
+	}
+
+	/*
+	 * append state changes to journal, compact when it's long; nymLock held
+	 */
+	private void journalState() {
+		if (journal == null)
+			return;
+		try {
+			journal.record(state);
+		} catch (IOException e) {
+			logger.error("writing state journal", e);
+			throw new RuntimeException(e);
+		}
+		if (journal.needsCompaction())
+			saveState();
 	}
 
-	private void removeBothNum(Long num) {
-		Iterator<Long> li = state.transactionNums.iterator();
-		while (li.hasNext())
-			if (li.next().equals(num)) {
-				li.remove();
-				break;
-			}
-		li = state.issuedNums.iterator();
-		while (li.hasNext())
-			if (li.next().equals(num)) {
-				li.remove();
-				break;
-			}
+	/*
+	 * accepted records are gone from the box, so are their receipts
+	 */
+	private void dropReceipts(OT.Ledger box, List<OT.BoxRecord> records) {
+		BoxReceiptCache cache = client.getBoxReceiptCache();
+		if (cache == null || records == null)
+			return;
+		String ownerID = box.getType() == OT.Ledger.Type.nymbox ? box.getUserID() : box.getAccountID();
+		for (OT.BoxRecord rec : records)
+			cache.remove(ownerID, box.getType(), rec.getTransactionNum());
 	}
 
 	private void takeNumsFrom(OT.User nym) {
@@ -771,15 +1456,41 @@ public class EClient implements Closeable, ReqNumManager {
 		state.issuedNums.clear();
 		if (nym.getIssuedNums() != null)
 			state.issuedNums.addAll(nym.getIssuedNums());
+		journalState();
 	}
 
+	/*
+	 * copies of state nums, callers change them; the copies take armored value of the cached lists along
+	 */
 	private OT.User makeNums() {
+		if (transactionNumList == null || !transactionNumList.equals(state.transactionNums)) {
+			transactionNumList = new OT.NumList(client.getServerID(), state.transactionNums);
+			transactionNumList.armored();
+		}
+		if (issuedNumList == null || !issuedNumList.equals(state.issuedNums)) {
+			issuedNumList = new OT.NumList(client.getServerID(), state.issuedNums);
+			issuedNumList.armored();
+		}
 		OT.User nums = new OT.User();
-		nums.setTransactionNums(new OT.NumList(client.getServerID(), state.transactionNums));
-		nums.setIssuedNums(new OT.NumList(client.getServerID(), state.issuedNums));
+		nums.setTransactionNums(new OT.NumList(transactionNumList));
+		nums.setIssuedNums(new OT.NumList(issuedNumList));
 		return nums;
 	}
 
+	/*
+	 * balance/transaction statement attachment, encoded again only when the lists change
+	 */
+	private OT.ArmoredString makeNumsAttachment(OT.User nums) {
+		OT.NumList tx = nums.getTransactionNums();
+		OT.NumList issued = nums.getIssuedNums();
+		if (numsAttachment == null || !attachedTransactionNums.equals(tx) || !attachedIssuedNums.equals(issued)) {
+			numsAttachment = new OT.ArmoredString(Engines.xstream.toXML(nums));
+			attachedTransactionNums = new LongSet(tx);
+			attachedIssuedNums = new LongSet(issued);
+		}
+		return numsAttachment;
+	}
+
 	static String json(Object obj) {
 		return Engines.gson.toJson(obj);
 	}
@@ -881,6 +1592,24 @@ public class EClient implements Closeable, ReqNumManager {
 		return cachedAccount;
 	}
 
+	public OT.Account getCachedAccount(String accountID) {
+		synchronized (cachedAccounts) {
+			return cachedAccounts.get(accountID);
+		}
+	}
+
+	OT.Account cacheAccount(OT.Account account) {
+		if (account == null)
+			return null;
+		if (account.getAccountID().equals(state.accountID))
+			cachedAccount = account;
+		synchronized (cachedAccounts) {
+			cachedAccounts.put(account.getAccountID(), account);
+		}
+		mirror.account(account);
+		return account;
+	}
+
 	public void setCreateNewAccount(boolean createNewAccount) {
 		this.createNewAccount = createNewAccount;
 	}
@@ -892,4 +1621,12 @@ public class EClient implements Closeable, ReqNumManager {
 	public void setFilters(List<ScriptFilter> filters) {
 		this.filters = filters;
 	}
+
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
 }
@@ -94,7 +94,9 @@ import com.thoughtworks.xstream.io.xml.XppDriver;
 public class Engines {
 
 	public static void render(SigningSupport sign, PrivateKey key) {
-		String str = xstream.toXML(sign);
+		String str = sign instanceof MSG.Message ? RequestTemplates.toXML((MSG.Message) sign) : null;
+		if (str == null)
+			str = xstream.toXML(sign);
 		if (false)// not-needed
 			if (sign instanceof MSG.Message)
 				str = "<?xml version=\"1.0\"?>\n" + str;
@@ -345,6 +347,42 @@ public class Engines {
 				out.setIndent("  ");
 			}
 		});
+		// same array format as NumList (EClient state)
+		builder.registerTypeAdapter(LongSet.class, new TypeAdapter<LongSet>() {
+			@Override
+			public LongSet read(JsonReader in) throws IOException {
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					return null;
+				}
+
+				LongSet set = new LongSet();
+				in.beginArray();
+				while (in.hasNext())
+					set.add(in.nextLong());
+				in.endArray();
+
+				return set;
+			}
+
+			@Override
+			public void write(JsonWriter out, LongSet value) throws IOException {
+				if (value == null) {
+					out.nullValue();
+					return;
+				}
+				out.beginArray();
+				out.setIndent("");
+				for (int i = 0; i < value.rangeCount(); i++)
+					for (long l = value.rangeStart(i);; l++) {
+						out.value(l);
+						if (l == value.rangeEnd(i))
+							break;
+					}
+				out.endArray();
+				out.setIndent("  ");
+			}
+		});
 
 		builder.registerTypeAdapter(OT.ArmoredString.class, new TypeAdapter<OT.ArmoredString>() {
 			@Override
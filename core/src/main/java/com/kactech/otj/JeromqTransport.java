@@ -51,6 +51,8 @@
 package com.kactech.otj;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.jeromq.ZContext;
 import org.jeromq.ZMQ;
@@ -58,12 +60,13 @@ import org.jeromq.ZMQ.PollItem;
 import org.jeromq.ZMQ.Socket;
 import org.jeromq.ZMsg;
 
-public class JeromqTransport implements Transport {
+public class JeromqTransport implements PipelinedTransport {
 	String endpoint;
 	long timeout;
 
 	ZContext ctx;
 	Socket socket;
+	Socket dealer;
 
 	public JeromqTransport(String endpoint) {
 		this(endpoint, 1, 10000l);
@@ -85,8 +88,17 @@ public class JeromqTransport implements Transport {
 		return this.socket;
 	}
 
+	synchronized Socket getDealer() {
+		if (this.dealer == null) {
+			Socket socket = ctx.createSocket(ZMQ.DEALER);
+			socket.connect(endpoint);
+			this.dealer = socket;
+		}
+		return this.dealer;
+	}
+
 	@Override
-	public byte[] send(byte[] message) {
+	public synchronized byte[] send(byte[] message) {
 		ZMsg request = new ZMsg();
 		request.add(message);
 		Socket socket = getSocket();
@@ -99,12 +111,47 @@ public class JeromqTransport implements Transport {
 		return reply != null ? reply.pop().getData() : null;
 	}
 
+	/**
+	 * All messages are written to one DEALER socket before reading replies, server sees them in order and answers in
+	 * order. Replies that arrived before timeout are returned, the socket is dropped when some are missing.
+	 */
+	@Override
+	public synchronized List<byte[]> sendAll(List<byte[]> messages) {
+		Socket socket = getDealer();
+		for (byte[] message : messages) {
+			socket.send(new byte[0], ZMQ.SNDMORE);
+			socket.send(message, 0);
+		}
+		List<byte[]> replies = new ArrayList<byte[]>(messages.size());
+		PollItem[] items = { new PollItem(socket, ZMQ.Poller.POLLIN) };
+		while (replies.size() < messages.size()) {
+			ZMQ.poll(items, timeout);
+			if (!items[0].isReadable())
+				break;
+			byte[] data = null;
+			do {
+				byte[] frame = socket.recv(0);
+				if (frame != null && frame.length > 0)
+					data = frame;
+			} while (socket.hasReceiveMore());
+			replies.add(data);
+		}
+		if (replies.size() < messages.size()) {
+			// late replies would be mixed with next batch
+			socket.setLinger(0);
+			ctx.destroySocket(socket);
+			this.dealer = null;
+		}
+		return replies;
+	}
+
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
 		if (this.ctx != null) {
 			this.ctx.destroy();
 			this.ctx = null;
 			this.socket = null;
+			this.dealer = null;
 		}
 	}
 }
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local copy of balance, inbox and outbox records of accounts, so they are queried without network. Fetched files
+ * replace it, results of our own processInbox and notarize change it in place. Box records are current while the
+ * box hash they were fetched with equals the one in the last fetched account; after a local change the hash is
+ * unknown until the box is fetched again. Transfers in flight are kept as pending deltas by transaction number, the
+ * projected balance the next balance statement is made from includes them.
+ */
+public class LedgerMirror {
+
+	public static class Entry {
+		final String accountID;
+		Long balance;
+		Long balanceDate;
+		List<OT.BoxRecord> inbox = Collections.emptyList();
+		List<OT.BoxRecord> outbox = Collections.emptyList();
+		// hashes of the boxes as fetched, null when changed locally since
+		String inboxHash, outboxHash;
+		// hashes from the last fetched account
+		String serverInboxHash, serverOutboxHash;
+		// transfers in flight, delta by transaction number
+		final Map<Long, Long> pending = new LinkedHashMap<Long, Long>();
+
+		Entry(String accountID) {
+			this.accountID = accountID;
+		}
+
+		Entry(Entry e) {
+			this(e.accountID);
+			balance = e.balance;
+			balanceDate = e.balanceDate;
+			inbox = e.inbox;
+			outbox = e.outbox;
+			inboxHash = e.inboxHash;
+			outboxHash = e.outboxHash;
+			serverInboxHash = e.serverInboxHash;
+			serverOutboxHash = e.serverOutboxHash;
+			pending.putAll(e.pending);
+		}
+
+		// get/set
+
+		public String getAccountID() {
+			return accountID;
+		}
+
+		public Long getBalance() {
+			return balance;
+		}
+
+		/**
+		 * @return balance with pending transfers, null if balance is not known
+		 */
+		public Long getProjectedBalance() {
+			if (balance == null)
+				return null;
+			long projected = balance;
+			for (long delta : pending.values())
+				projected += delta;
+			return projected;
+		}
+
+		/**
+		 * @return seconds, as in OT.Balance
+		 */
+		public Long getBalanceDate() {
+			return balanceDate;
+		}
+
+		public List<OT.BoxRecord> getInbox() {
+			return inbox;
+		}
+
+		public List<OT.BoxRecord> getOutbox() {
+			return outbox;
+		}
+
+		public boolean isInboxCurrent() {
+			return inboxHash != null && inboxHash.equals(serverInboxHash);
+		}
+
+		public boolean isOutboxCurrent() {
+			return outboxHash != null && outboxHash.equals(serverOutboxHash);
+		}
+	}
+
+	final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	Entry entry(String accountID) {
+		Entry e = entries.get(accountID);
+		if (e == null)
+			entries.put(accountID, e = new Entry(accountID));
+		return e;
+	}
+
+	static String value(OT.Hash hash) {
+		return hash == null ? null : hash.getValue();
+	}
+
+	/**
+	 * fetched account: balance and the server box hashes. The balance is ignored while transfers are in flight, it's
+	 * not known if they are in it; they are folded in when accepted.
+	 */
+	public synchronized void account(OT.Account account) {
+		if (account == null || account.getAccountID() == null)
+			return;
+		Entry e = entry(account.getAccountID());
+		if (account.getBalance() != null && e.pending.isEmpty()) {
+			e.balance = account.getBalance().getAmount();
+			e.balanceDate = account.getBalance().getDate();
+		}
+		e.serverInboxHash = value(account.getInboxHash());
+		e.serverOutboxHash = value(account.getOutboxHash());
+	}
+
+	public synchronized void inbox(String accountID, OT.Ledger inbox, String inboxHash) {
+		if (inbox == null)
+			return;
+		Entry e = entry(accountID);
+		e.inbox = records(inbox.getInboxRecords());
+		e.inboxHash = inboxHash;
+	}
+
+	public synchronized void outbox(String accountID, OT.Ledger outbox, String outboxHash) {
+		if (outbox == null)
+			return;
+		Entry e = entry(accountID);
+		e.outbox = records(outbox.getOutboxRecords());
+		e.outboxHash = outboxHash;
+	}
+
+	/**
+	 * records were accepted by processInbox, balance is the one of its balance statement
+	 */
+	public synchronized void inboxProcessed(String accountID, Collection<OT.BoxRecord> accepted, long balance) {
+		Entry e = entry(accountID);
+		List<OT.BoxRecord> inbox = new ArrayList<OT.BoxRecord>(e.inbox);
+		for (OT.BoxRecord rec : accepted)
+			for (Iterator<OT.BoxRecord> it = inbox.iterator(); it.hasNext();)
+				if (same(it.next(), rec))
+					it.remove();
+		e.inbox = Collections.unmodifiableList(inbox);
+		e.inboxHash = null;
+		if (e.pending.isEmpty())
+			setBalance(e, balance);
+	}
+
+	/**
+	 * transfer is being sent, delta is negative for debit
+	 */
+	public synchronized void pending(String accountID, long transactionNum, long delta) {
+		entry(accountID).pending.put(transactionNum, delta);
+	}
+
+	/**
+	 * transfer was notarized: its pending delta is folded into the balance. The server added a pending record to the
+	 * outbox which isn't known here, so the mirrored outbox is not current until fetched again.
+	 */
+	public synchronized void transferred(String accountID, long transactionNum) {
+		Entry e = entry(accountID);
+		Long delta = e.pending.remove(transactionNum);
+		if (delta != null && e.balance != null)
+			setBalance(e, e.balance + delta);
+		e.outboxHash = null;
+	}
+
+	public synchronized void rejected(String accountID, long transactionNum) {
+		entry(accountID).pending.remove(transactionNum);
+	}
+
+	/**
+	 * forgets balance and pending transfers of the account, next balance comes from server
+	 */
+	public synchronized void reset(String accountID) {
+		Entry e = entries.get(accountID);
+		if (e == null)
+			return;
+		e.balance = null;
+		e.balanceDate = null;
+		e.pending.clear();
+	}
+
+	static void setBalance(Entry e, long balance) {
+		e.balance = balance;
+		e.balanceDate = System.currentTimeMillis() / 1000;
+	}
+
+	static boolean same(OT.BoxRecord a, OT.BoxRecord b) {
+		return a.getTransactionNum() == null ? b.getTransactionNum() == null : a.getTransactionNum().equals(
+				b.getTransactionNum());
+	}
+
+	static List<OT.BoxRecord> records(List<OT.BoxRecord> records) {
+		if (records == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(new ArrayList<OT.BoxRecord>(records));
+	}
+
+	// queries
+
+	/**
+	 * @return copy of the account's entry, null if nothing is known about it
+	 */
+	public synchronized Entry get(String accountID) {
+		Entry e = entries.get(accountID);
+		return e == null ? null : new Entry(e);
+	}
+
+	public synchronized Long getBalance(String accountID) {
+		Entry e = entries.get(accountID);
+		return e == null ? null : e.balance;
+	}
+
+	public synchronized Long getProjectedBalance(String accountID) {
+		Entry e = entries.get(accountID);
+		return e == null ? null : e.getProjectedBalance();
+	}
+
+	public synchronized List<OT.BoxRecord> getInbox(String accountID) {
+		Entry e = entries.get(accountID);
+		return e == null ? null : e.inbox;
+	}
+
+	public synchronized List<OT.BoxRecord> getOutbox(String accountID) {
+		Entry e = entries.get(accountID);
+		return e == null ? null : e.outbox;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -0,0 +1,552 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted set of primitive longs kept as disjoint inclusive ranges, OT hands out transaction numbers in runs so
+ * thousands of numbers are usually just a few ranges. Contains/add/remove are binary searches, set algebra works on
+ * whole ranges. Every change bumps {@link #getVersion()}, so encodings derived from the set can be cached.
+ */
+public class LongSet extends AbstractSet<Long> {
+	long[] starts;
+	long[] ends;
+	int ranges;
+	long count;
+	int version;
+
+	public LongSet() {
+		starts = new long[4];
+		ends = new long[4];
+	}
+
+	public LongSet(LongSet set) {
+		starts = set.starts.clone();
+		ends = set.ends.clone();
+		ranges = set.ranges;
+		count = set.count;
+	}
+
+	public LongSet(Collection<Long> nums) {
+		this();
+		if (nums instanceof LongSet)
+			addAll((LongSet) nums);
+		else
+			for (Long l : nums)
+				add(l.longValue());
+	}
+
+	public static LongSet of(long... nums) {
+		LongSet set = new LongSet();
+		for (long l : nums)
+			set.add(l);
+		return set;
+	}
+
+	/**
+	 * @return index of the last range starting at or before v, -1 if none
+	 */
+	int floor(long v) {
+		int lo = 0, hi = ranges - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= v)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+
+	public boolean contains(long v) {
+		int i = floor(v);
+		return i >= 0 && ends[i] >= v;
+	}
+
+	public boolean add(long v) {
+		return addRange(v, v) != 0;
+	}
+
+	public boolean remove(long v) {
+		return removeRange(v, v) != 0;
+	}
+
+	/**
+	 * adds [from, to] inclusive
+	 * 
+	 * @return number of added values
+	 */
+	public long addRange(long from, long to) {
+		if (from > to)
+			throw new IllegalArgumentException(from + " > " + to);
+		if (ranges > 0 && from > ends[ranges - 1]) {
+			// ascending input, usual when parsing
+			if (from - 1 == ends[ranges - 1])
+				ends[ranges - 1] = to;
+			else
+				insert(ranges, from, to);
+			count += to - from + 1;
+			version++;
+			return to - from + 1;
+		}
+		// first range ending at or after from-1 (touching counts)
+		int lo = floor(from);
+		if (lo < 0 || ends[lo] < from && (from == Long.MIN_VALUE || ends[lo] != from - 1))
+			lo++;
+		// last range starting at or before to+1
+		int hi = to == Long.MAX_VALUE ? ranges - 1 : floor(to + 1);
+		if (lo > hi) {
+			insert(lo, from, to);
+			count += to - from + 1;
+			version++;
+			return to - from + 1;
+		}
+		long start = Math.min(from, starts[lo]);
+		long end = Math.max(to, ends[hi]);
+		long before = 0;
+		for (int i = lo; i <= hi; i++)
+			before += ends[i] - starts[i] + 1;
+		long added = end - start + 1 - before;
+		if (added == 0)
+			return 0;
+		starts[lo] = start;
+		ends[lo] = end;
+		delete(lo + 1, hi - lo);
+		count += added;
+		version++;
+		return added;
+	}
+
+	/**
+	 * removes [from, to] inclusive
+	 * 
+	 * @return number of removed values
+	 */
+	public long removeRange(long from, long to) {
+		if (from > to)
+			throw new IllegalArgumentException(from + " > " + to);
+		int lo = floor(from);
+		if (lo < 0 || ends[lo] < from)
+			lo++;
+		int hi = floor(to);
+		if (lo > hi)
+			return 0;
+		long removed = 0;
+		for (int i = lo; i <= hi; i++)
+			removed += Math.min(ends[i], to) - Math.max(starts[i], from) + 1;
+		boolean left = starts[lo] < from;
+		boolean right = ends[hi] > to;
+		long leftStart = starts[lo], rightEnd = ends[hi];
+		int keep = (left ? 1 : 0) + (right ? 1 : 0);
+		int span = hi - lo + 1;
+		if (keep > span)
+			insert(lo, 0, 0);// split of single range
+		else
+			delete(lo + keep, span - keep);
+		int i = lo;
+		if (left) {
+			starts[i] = leftStart;
+			ends[i] = from - 1;
+			i++;
+		}
+		if (right) {
+			starts[i] = to + 1;
+			ends[i] = rightEnd;
+		}
+		count -= removed;
+		version++;
+		return removed;
+	}
+
+	void insert(int at, long start, long end) {
+		if (ranges == starts.length) {
+			int cap = Math.max(4, ranges * 2);
+			long[] s = new long[cap];
+			long[] e = new long[cap];
+			System.arraycopy(starts, 0, s, 0, ranges);
+			System.arraycopy(ends, 0, e, 0, ranges);
+			starts = s;
+			ends = e;
+		}
+		System.arraycopy(starts, at, starts, at + 1, ranges - at);
+		System.arraycopy(ends, at, ends, at + 1, ranges - at);
+		starts[at] = start;
+		ends[at] = end;
+		ranges++;
+	}
+
+	void delete(int at, int n) {
+		if (n <= 0)
+			return;
+		System.arraycopy(starts, at + n, starts, at, ranges - at - n);
+		System.arraycopy(ends, at + n, ends, at, ranges - at - n);
+		ranges -= n;
+	}
+
+	// set algebra
+
+	public boolean addAll(LongSet set) {
+		long added = 0;
+		for (int i = 0; i < set.ranges; i++)
+			added += addRange(set.starts[i], set.ends[i]);
+		return added != 0;
+	}
+
+	public boolean removeAll(LongSet set) {
+		long removed = 0;
+		for (int i = 0; i < set.ranges && count > 0; i++)
+			removed += removeRange(set.starts[i], set.ends[i]);
+		return removed != 0;
+	}
+
+	public boolean retainAll(LongSet set) {
+		LongSet and = intersection(this, set);
+		if (and.count == count)
+			return false;
+		starts = and.starts;
+		ends = and.ends;
+		ranges = and.ranges;
+		count = and.count;
+		version++;
+		return true;
+	}
+
+	public boolean containsAll(LongSet set) {
+		for (int i = 0; i < set.ranges; i++) {
+			int j = floor(set.starts[i]);
+			if (j < 0 || ends[j] < set.ends[i])
+				return false;
+		}
+		return true;
+	}
+
+	public static LongSet union(LongSet a, LongSet b) {
+		LongSet r = new LongSet(a);
+		r.addAll(b);
+		return r;
+	}
+
+	public static LongSet difference(LongSet a, LongSet b) {
+		LongSet r = new LongSet(a);
+		r.removeAll(b);
+		return r;
+	}
+
+	public static LongSet intersection(LongSet a, LongSet b) {
+		LongSet r = new LongSet();
+		int i = 0, j = 0;
+		while (i < a.ranges && j < b.ranges) {
+			long start = Math.max(a.starts[i], b.starts[j]);
+			long end = Math.min(a.ends[i], b.ends[j]);
+			if (start <= end) {
+				r.insert(r.ranges, start, end);
+				r.count += end - start + 1;
+			}
+			if (a.ends[i] < b.ends[j])
+				i++;
+			else
+				j++;
+		}
+		return r;
+	}
+
+	// access
+
+	/**
+	 * @return smallest number or null if empty, like {@link java.util.LinkedList#peek()}
+	 */
+	public Long peek() {
+		return ranges == 0 ? null : starts[0];
+	}
+
+	public long first() {
+		if (ranges == 0)
+			throw new NoSuchElementException();
+		return starts[0];
+	}
+
+	public long last() {
+		if (ranges == 0)
+			throw new NoSuchElementException();
+		return ends[ranges - 1];
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public int rangeCount() {
+		return ranges;
+	}
+
+	public long rangeStart(int i) {
+		return starts[i];
+	}
+
+	public long rangeEnd(int i) {
+		return ends[i];
+	}
+
+	public long[] toLongArray() {
+		long[] a = new long[(int) count];
+		int k = 0;
+		for (int i = 0; i < ranges; i++)
+			for (long v = starts[i];; v++) {
+				a[k++] = v;
+				if (v == ends[i])
+					break;
+			}
+		return a;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	// text
+
+	/**
+	 * appends numbers in ascending order separated by sep
+	 */
+	public StringBuilder appendTo(StringBuilder b, char sep) {
+		boolean first = true;
+		for (int i = 0; i < ranges; i++)
+			for (long v = starts[i];; v++) {
+				if (!first)
+					b.append(sep);
+				first = false;
+				b.append(v);
+				if (v == ends[i])
+					break;
+			}
+		return b;
+	}
+
+	/**
+	 * Parses comma separated numbers into the set without splitting the string or boxing, whitespace and empty items
+	 * are skipped.
+	 */
+	public static <T extends LongSet> T parse(CharSequence str, T set) {
+		long v = 0;
+		boolean neg = false, digits = false;
+		int len = str.length();
+		for (int i = 0; i <= len; i++) {
+			char c = i < len ? str.charAt(i) : ',';
+			if (c >= '0' && c <= '9') {
+				if (v > (Long.MAX_VALUE - (c - '0')) / 10)
+					throw new NumberFormatException("number too big in list: " + str);
+				v = v * 10 + (c - '0');
+				digits = true;
+			} else if (c == ',') {
+				if (digits)
+					set.add(neg ? -v : v);
+				else if (neg)
+					throw new NumberFormatException("bad number list: " + str);
+				v = 0;
+				neg = false;
+				digits = false;
+			} else if (c == '-' && !digits && !neg)
+				neg = true;
+			else if (!Character.isWhitespace(c))
+				throw new NumberFormatException("bad number list: " + str);
+		}
+		return set;
+	}
+
+	// Collection
+
+	@Override
+	public int size() {
+		return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Long && contains(((Long) o).longValue());
+	}
+
+	@Override
+	public boolean add(Long e) {
+		return add(e.longValue());
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return o instanceof Long && remove(((Long) o).longValue());
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends Long> c) {
+		if (c instanceof LongSet)
+			return addAll((LongSet) c);
+		return super.addAll(c);
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		if (c instanceof LongSet)
+			return removeAll((LongSet) c);
+		boolean changed = false;
+		for (Object o : c)
+			changed |= remove(o);
+		return changed;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		if (c instanceof LongSet)
+			return retainAll((LongSet) c);
+		return super.retainAll(c);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (c instanceof LongSet)
+			return containsAll((LongSet) c);
+		return super.containsAll(c);
+	}
+
+	@Override
+	public void clear() {
+		if (ranges == 0)
+			return;
+		ranges = 0;
+		count = 0;
+		version++;
+	}
+
+	@Override
+	public Iterator<Long> iterator() {
+		return new Iterator<Long>() {
+			int range = 0;
+			long next = ranges == 0 ? 0 : starts[0];
+			Long last;
+			int expected = version;
+
+			@Override
+			public boolean hasNext() {
+				return range < ranges;
+			}
+
+			@Override
+			public Long next() {
+				if (expected != version)
+					throw new ConcurrentModificationException();
+				if (range >= ranges)
+					throw new NoSuchElementException();
+				last = next;
+				if (next == ends[range]) {
+					range++;
+					if (range < ranges)
+						next = starts[range];
+				} else
+					next++;
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				if (expected != version)
+					throw new ConcurrentModificationException();
+				boolean more = range < ranges;
+				LongSet.this.remove(last.longValue());
+				expected = version;
+				last = null;
+				// ranges may have shifted or split
+				range = more ? floor(next) : ranges;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof LongSet) {
+			LongSet s = (LongSet) o;
+			if (s.ranges != ranges || s.count != count)
+				return false;
+			for (int i = 0; i < ranges; i++)
+				if (starts[i] != s.starts[i] || ends[i] != s.ends[i])
+					return false;
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("[");
+		for (int i = 0; i < ranges; i++) {
+			if (i > 0)
+				b.append(", ");
+			b.append(starts[i]);
+			if (ends[i] != starts[i])
+				b.append(ends[i] == starts[i] + 1 ? ", " : "..").append(ends[i]);
+		}
+		return b.append(']').toString();
+	}
+}
@@ -51,8 +51,11 @@
 package com.kactech.otj;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.kactech.otj.OT.ArmoredData;
 import com.kactech.otj.OT.NumList;
@@ -84,6 +87,9 @@ public class MSG {
 			version = "2.0";
 		}
 
+		// notary signature check of received message, not serialized
+		transient Future<Boolean> verification;
+
 		CheckUser checkUser;
 		@XStreamAlias("re_checkUser")
 		CheckUserResp checkUserResp;
@@ -375,10 +381,17 @@ public class MSG {
 		 * helper
 		 */
 		static Map<Class, Field> fields = new HashMap<Class, Field>();
+		static List<Field> requestFields = new ArrayList<Field>();
+		static List<Field> responseFields = new ArrayList<Field>();
 		static
 		{
-			for (Field f : Message.class.getDeclaredFields())
+			for (Field f : Message.class.getDeclaredFields()) {
 				fields.put(f.getType(), f);
+				if (Response.class.isAssignableFrom(f.getType()))
+					responseFields.add(f);
+				else if (Request.class.isAssignableFrom(f.getType()))
+					requestFields.add(f);
+			}
 		}
 
 		public Message set(Object requestOrResponse) {
@@ -390,6 +403,44 @@ public class MSG {
 			}
 
 		}
+
+		/**
+		 * @return request carried by this message, null for response
+		 */
+		public Request request() {
+			return (Request) first(requestFields);
+		}
+
+		/**
+		 * @return response carried by this message, null for request
+		 */
+		public Response response() {
+			return (Response) first(responseFields);
+		}
+
+		Object first(List<Field> list) {
+			try {
+				for (Field f : list) {
+					Object obj = f.get(this);
+					if (obj != null)
+						return obj;
+				}
+				return null;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * @return null when client has no verifier, see {@link SignatureVerifier#isVerified(Message)}
+		 */
+		public Future<Boolean> getVerification() {
+			return verification;
+		}
+
+		public void setVerification(Future<Boolean> verification) {
+			this.verification = verification;
+		}
 	}
 
 	public static class Request {
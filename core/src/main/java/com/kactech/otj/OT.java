@@ -53,10 +53,9 @@ package com.kactech.otj;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -1080,18 +1079,14 @@ public class OT {
 		}
 
 		//TODO multiple servers
-		public void addAllNums(String serverID, List<Long> num) {
+		public void addAllNums(String serverID, Collection<Long> num) {
 			if (transactionNums == null)
 				transactionNums = new NumList();
-			for (Long l : num)
-				if (!transactionNums.contains(l))
-					transactionNums.add(l);
+			transactionNums.addAll(num);
 			transactionNums.serverID = serverID;
 			if (issuedNums == null)
 				issuedNums = new NumList();
-			for (Long l : num)
-				if (!issuedNums.contains(l))
-					issuedNums.add(l);
+			issuedNums.addAll(num);
 			issuedNums.serverID = serverID;
 		}
 
@@ -2153,6 +2148,9 @@ public class OT {
 		@GsonExclude
 		String armored;
 		String unarmored;
+		// unarmored value the armored one was made from in marshal
+		@GsonExclude
+		transient String armoredFrom;
 
 		public ArmoredString() {
 		}
@@ -2170,7 +2168,10 @@ public class OT {
 			@Override
 			public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
 				OT.ArmoredString string = (OT.ArmoredString) source;
-				string.armored = AsciiA.setString(string.unarmored, true);
+				if (string.armored == null || string.armoredFrom != string.unarmored) {
+					string.armored = AsciiA.setString(string.unarmored, true);
+					string.armoredFrom = string.unarmored;
+				}
 				writer.setValue('\n' + string.armored);
 			}
 
@@ -2202,7 +2203,7 @@ public class OT {
 		}
 	}
 
-	public static class NumListAttribute extends ArrayList<Long> {
+	public static class NumListAttribute extends LongSet {
 		public static final SingleValueConverter converter = new SingleValueConverter() {
 
 			@Override
@@ -2212,30 +2213,22 @@ public class OT {
 
 			@Override
 			public String toString(Object obj) {
-				Iterator<Long> li = ((NumListAttribute) obj).iterator();
-				StringBuilder b = new StringBuilder();
-				while (li.hasNext()) {
-					b.append(li.next());
-					if (li.hasNext())
-						b.append(',');
-				}
-				return b.toString();
+				return ((NumListAttribute) obj).appendTo(new StringBuilder(), ',').toString();
 			}
 
 			@Override
 			public Object fromString(String str) {
-				NumListAttribute nl = new NumListAttribute();
-				for (String s : str.split(","))
-					nl.add(new Long(s));
-				return nl;
+				return LongSet.parse(str, new NumListAttribute());
 			}
 		};
 	}
 
 	@SuppressWarnings({ "rawtypes", "serial" })
-	public static class NumList extends LinkedList<Long> {
+	public static class NumList extends LongSet {
 		String serverID;
 		String armored;
+		// set version the armored value was made for
+		transient int armoredVersion = -1;
 
 		public NumList() {
 		}
@@ -2247,21 +2240,19 @@ public class OT {
 		public NumList(NumList list) {
 			super(list);
 			serverID = list.serverID;
+			if (list.armoredVersion == list.getVersion()) {
+				armored = list.armored;
+				armoredVersion = getVersion();
+			}
 		}
 
-		public NumList(String serverID, List<Long> nums) {
+		public NumList(String serverID, Collection<Long> nums) {
 			super(nums);
 			this.serverID = serverID;
 		}
 
 		public boolean removeNum(Long num) {
-			Iterator<Long> it = iterator();
-			while (it.hasNext())
-				if (it.next().equals(num)) {
-					it.remove();
-					return true;
-				}
-			return false;
+			return num != null && remove(num.longValue());
 		}
 
 		public static final Converter converter = new Converter() {
@@ -2276,10 +2267,7 @@ public class OT {
 				NumList nl = new NumList();
 				nl.serverID = reader.getAttribute("serverID");
 				nl.armored = reader.getValue();
-				String str = AsciiA.getString(nl.armored.trim());
-				for (String s : str.split(","))
-					if (s.length() != 0)
-						nl.add(new Long(s));
+				LongSet.parse(AsciiA.getString(nl.armored.trim()), nl);
 				return nl;
 			}
 
@@ -2287,18 +2275,21 @@ public class OT {
 			public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
 				NumList nl = (NumList) source;
 				writer.addAttribute("serverID", nl.serverID);
-				StringBuilder b = new StringBuilder();
-				Iterator<Long> li = nl.iterator();
-				while (li.hasNext()) {
-					b.append(li.next());
-					if (li.hasNext())
-						b.append(',');
-				}
-				nl.armored = AsciiA.setString(b.toString());
-				writer.setValue('\n' + nl.armored);
+				writer.setValue('\n' + nl.armored());
 			}
 		};
 
+		/**
+		 * armored value as marshalled, kept until the list changes
+		 */
+		String armored() {
+			if (armoredVersion != getVersion()) {
+				armored = AsciiA.setString(appendTo(new StringBuilder(), ',').toString());
+				armoredVersion = getVersion();
+			}
+			return armored;
+		}
+
 		@Override
 		public String toString() {
 			return "NumList[serverID=" + serverID + ", nums:" + new ArrayList<Long>(this).toString() + "]";
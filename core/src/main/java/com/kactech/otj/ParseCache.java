@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.kactech.otj.model.BasicConnectionInfo;
+
+/**
+ * Signed public infos never change for given text, so what's parsed from it is cached by samy hash of the text. Only
+ * immutable values (keys, connection infos) are cached; contracts are mutable and parsed every time.
+ */
+public class ParseCache<V> {
+	public static int DEFAULT_SIZE = 1024;
+
+	public static final ParseCache<BasicConnectionInfo> connectionInfos = new ParseCache<BasicConnectionInfo>(
+			DEFAULT_SIZE);
+	public static final ParseCache<PublicKey> publicKeys = new ParseCache<PublicKey>(DEFAULT_SIZE);
+	// verified (signed text, key) pairs, see SignatureVerifier
+	public static final ParseCache<Boolean> signatures = new ParseCache<Boolean>(DEFAULT_SIZE * 4);
+
+	final Map<String, V> map;
+	long hits, misses;
+
+	public ParseCache(final int size) {
+		this.map = new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	public static String key(String signed) {
+		return Utils.samy62(Utils.bytes(signed, Utils.UTF8));
+	}
+
+	public synchronized V get(String key) {
+		V v = map.get(key);
+		if (v == null)
+			misses++;
+		else
+			hits++;
+		return v;
+	}
+
+	public synchronized void put(String key, V value) {
+		map.put(key, value);
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	public static PublicKey publicKey(String rawPublicInfo, boolean escaped) {
+		String key = key(rawPublicInfo) + escaped;
+		PublicKey pk = publicKeys.get(key);
+		if (pk == null) {
+			pk = Utils.fromRawPublicInfo(rawPublicInfo, escaped);
+			publicKeys.put(key, pk);
+		}
+		return pk;
+	}
+
+	// get/set
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+}
@@ -0,0 +1,332 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches nymboxes and inboxes of many clients with cheap probes: getRequest for nymboxHash (costs no request number)
+ * and getAccount for inboxHash. Interval of a watch grows while its hash stays the same (up to maxInterval) and drops
+ * to minInterval on change or {@link #activity(EClient)}. Delays are jittered, so watches started together spread
+ * out. Listeners are called on the polling thread, the first probe of a watch counts as change.
+ */
+public class PollScheduler implements Closeable {
+	static final Logger logger = LoggerFactory.getLogger(PollScheduler.class);
+	public static long DEFAULT_MIN_INTERVAL = 5 * 1000l;
+	public static long DEFAULT_MAX_INTERVAL = 5 * 60 * 1000l;
+	public static int DEFAULT_THREADS = 2;
+	public static double BACKOFF = 2;
+	public static double JITTER = 0.2;
+
+	public static interface Listener {
+		/**
+		 * messages, notices or new transaction numbers arrived
+		 */
+		public void nymboxChanged(EClient client, String nymboxHash);
+
+		/**
+		 * @param account
+		 *            just fetched
+		 */
+		public void inboxChanged(EClient client, OT.Account account);
+	}
+
+	class Watch implements Runnable {
+		final EClient client;
+		final String accountID;// null for nymbox
+		final AtomicBoolean running = new AtomicBoolean();
+		String hash;
+		boolean seen;
+		long interval = minInterval;
+		boolean hurry;
+		boolean cancelled;
+		ScheduledFuture<?> future;
+
+		Watch(EClient client, String accountID) {
+			this.client = client;
+			this.accountID = accountID;
+		}
+
+		@Override
+		public void run() {
+			if (!running.compareAndSet(false, true))
+				return;
+			boolean changed = false;
+			try {
+				if (!cancelled)
+					changed = probe();
+			} catch (Exception e) {
+				logger.warn("polling {}: {}", this, e.toString());
+			} finally {
+				synchronized (this) {
+					if (changed || hurry)
+						interval = minInterval;
+					else
+						interval = Math.min(maxInterval, (long) (interval * BACKOFF));
+					hurry = false;
+					schedule(jitter(interval));
+					running.set(false);
+				}
+			}
+		}
+
+		boolean probe() {
+			if (accountID == null) {
+				String h = client.getClient().getRequestResp().getNymboxHash();
+				if (seen && eq(h, hash))
+					return false;
+				seen = true;
+				hash = h;
+				for (Listener l : listeners)
+					try {
+						l.nymboxChanged(client, h);
+					} catch (Exception e) {
+						logger.error("nymbox listener", e);
+					}
+			} else {
+				OT.Account account = client.getAccount(accountID);
+				String h = account.getInboxHash() == null ? null : account.getInboxHash().getValue();
+				if (seen && eq(h, hash))
+					return false;
+				seen = true;
+				hash = h;
+				for (Listener l : listeners)
+					try {
+						l.inboxChanged(client, account);
+					} catch (Exception e) {
+						logger.error("inbox listener", e);
+					}
+			}
+			return true;
+		}
+
+		synchronized void schedule(long delay) {
+			if (future != null)
+				future.cancel(false);
+			if (!cancelled)
+				future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		synchronized void activity() {
+			interval = minInterval;
+			if (running.get())
+				hurry = true;
+			else
+				schedule(jitter(minInterval));
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+			if (future != null)
+				future.cancel(false);
+		}
+
+		@Override
+		public String toString() {
+			return accountID == null ? "nymbox" : "inbox " + accountID;
+		}
+	}
+
+	final ScheduledExecutorService executor;
+	final boolean ownExecutor;
+	final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	final Map<EClient, List<Watch>> watches = new HashMap<EClient, List<Watch>>();
+	final Random random = new Random();
+	long minInterval = DEFAULT_MIN_INTERVAL;
+	long maxInterval = DEFAULT_MAX_INTERVAL;
+
+	public PollScheduler() {
+		this(Executors.newScheduledThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "otj-poll");
+				t.setDaemon(true);
+				return t;
+			}
+		}), true);
+	}
+
+	/**
+	 * @param executor
+	 *            probes block on network, don't share a single thread scheduler with time critical tasks
+	 */
+	public PollScheduler(ScheduledExecutorService executor) {
+		this(executor, false);
+	}
+
+	PollScheduler(ScheduledExecutorService executor, boolean ownExecutor) {
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * watches nymbox and all asset accounts of the client
+	 */
+	public void watch(EClient client) {
+		watchNymbox(client);
+		for (String accountID : client.getAccounts().keySet())
+			watchAccount(client, accountID);
+	}
+
+	public void watchNymbox(EClient client) {
+		add(new Watch(client, null));
+	}
+
+	public void watchAccount(EClient client, String accountID) {
+		add(new Watch(client, accountID));
+	}
+
+	void add(Watch w) {
+		synchronized (watches) {
+			List<Watch> list = watches.get(w.client);
+			if (list == null)
+				watches.put(w.client, list = new ArrayList<Watch>());
+			for (Watch o : list)
+				if (eq(o.accountID, w.accountID))
+					return;
+			list.add(w);
+		}
+		// first probes spread over minInterval
+		w.schedule((long) (random() * minInterval));
+	}
+
+	public void unwatch(EClient client) {
+		List<Watch> list;
+		synchronized (watches) {
+			list = watches.remove(client);
+		}
+		if (list != null)
+			for (Watch w : list)
+				w.cancel();
+	}
+
+	/**
+	 * something happened (transfer sent, message expected...), poll the client often again
+	 */
+	public void activity(EClient client) {
+		List<Watch> list;
+		synchronized (watches) {
+			list = watches.get(client);
+			list = list == null ? null : new ArrayList<Watch>(list);
+		}
+		if (list != null)
+			for (Watch w : list)
+				w.activity();
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	long jitter(long interval) {
+		return (long) (interval * (1 + JITTER * (2 * random() - 1)));
+	}
+
+	double random() {
+		synchronized (random) {
+			return random.nextDouble();
+		}
+	}
+
+	static boolean eq(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public void close() throws IOException {
+		List<EClient> clients;
+		synchronized (watches) {
+			clients = new ArrayList<EClient>(watches.keySet());
+		}
+		for (EClient client : clients)
+			unwatch(client);
+		if (ownExecutor)
+			executor.shutdownNow();
+	}
+
+	// get/set
+
+	public long getMinInterval() {
+		return minInterval;
+	}
+
+	public void setMinInterval(long minInterval) {
+		this.minInterval = minInterval;
+	}
+
+	public long getMaxInterval() {
+		return maxInterval;
+	}
+
+	public void setMaxInterval(long maxInterval) {
+		this.maxInterval = maxInterval;
+	}
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unsigned XML of fixed-shape requests (getRequest, getNymbox, getInbox, getOutbox, getAccount) without running
+ * xstream: each is rendered once by xstream with marker values and cut into constant parts, later only the values
+ * are put in between. Output is byte-identical to xstream's; messages not fitting a template get null.
+ */
+public class RequestTemplates {
+	public static boolean ENABLED = true;
+
+	static final long NUM_MARK = 9182736450918273645l;
+	static final String NYM_MARK = "otjTemplateNymID", SERVER_MARK = "otjTemplateServerID",
+			ACCOUNT_MARK = "otjTemplateAccountID", ACK_SERVER_MARK = "otjTemplateAckServerID",
+			ACK_MARK = "otjTemplateAckReplies";
+
+	static final int NUM = 0, NYM = 1, SERVER = 2, ACCOUNT = 3, ACK_SERVER = 4, ACK = 5;
+	static final String[] MARKS = { Long.toString(NUM_MARK), NYM_MARK, SERVER_MARK, ACCOUNT_MARK, ACK_SERVER_MARK,
+			ACK_MARK };
+
+	/**
+	 * constant parts with value slots between them
+	 */
+	static class Template {
+		final String[] parts;
+		final int[] slots;
+
+		Template(String xml) {
+			List<String> parts = new ArrayList<String>();
+			List<Integer> slots = new ArrayList<Integer>();
+			int from = 0;
+			while (true) {
+				int at = -1, slot = -1;
+				for (int i = 0; i < MARKS.length; i++) {
+					int idx = xml.indexOf(MARKS[i], from);
+					if (idx >= 0 && (at < 0 || idx < at)) {
+						at = idx;
+						slot = i;
+					}
+				}
+				if (at < 0)
+					break;
+				parts.add(xml.substring(from, at));
+				slots.add(slot);
+				from = at + MARKS[slot].length();
+			}
+			parts.add(xml.substring(from));
+			this.parts = parts.toArray(new String[parts.size()]);
+			this.slots = new int[slots.size()];
+			for (int i = 0; i < this.slots.length; i++)
+				this.slots[i] = slots.get(i);
+		}
+
+		String fill(String[] values) {
+			int len = 0;
+			for (String p : parts)
+				len += p.length();
+			for (int s : slots)
+				len += values[s].length();
+			StringBuilder sb = new StringBuilder(len);
+			for (int i = 0; i < slots.length; i++)
+				sb.append(parts[i]).append(values[slots[i]]);
+			return sb.append(parts[slots.length]).toString();
+		}
+	}
+
+	// [plain, with ackReplies] by request class
+	static final Map<Class<?>, Template[]> templates = new HashMap<Class<?>, Template[]>();
+	// message fields which must be empty besides the request and ackReplies
+	static final List<Field> others = new ArrayList<Field>();
+	static {
+		Class<?>[] types = { MSG.GetRequest.class, MSG.GetNymbox.class, MSG.GetInbox.class, MSG.GetOutbox.class,
+				MSG.GetAccount.class };
+		for (Class<?> type : types) {
+			MSG.Message msg = new MSG.Message().set(marked(type));
+			Template plain = new Template(Engines.xstream.toXML(msg));
+			OT.NumList ack = new OT.NumList(ACK_SERVER_MARK);
+			ack.armored = ACK_MARK;
+			ack.armoredVersion = ack.getVersion();
+			msg.setAckReplies(ack);
+			templates.put(type, new Template[] { plain, new Template(Engines.xstream.toXML(msg)) });
+		}
+		for (Class<?> c = MSG.Message.class; c != OT.Contract.class.getSuperclass(); c = c.getSuperclass())
+			for (Field f : c.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())
+						|| f.getName().equals("version") || f.getName().equals("ackReplies"))
+					continue;
+				f.setAccessible(true);
+				others.add(f);
+			}
+	}
+
+	static MSG.Request marked(Class<?> type) {
+		try {
+			MSG.Request req = (MSG.Request) type.newInstance();
+			req.setRequestNum(NUM_MARK);
+			req.setNymID(NYM_MARK);
+			req.setServerID(SERVER_MARK);
+			if (type.getDeclaredFields().length > 0)
+				type.getDeclaredField("accountID").set(req, ACCOUNT_MARK);
+			return req;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return unsigned XML same as xstream would write, null when message has no template
+	 */
+	public static String toXML(MSG.Message msg) {
+		if (!ENABLED || msg.getClass() != MSG.Message.class || !"2.0".equals(msg.getVersion()))
+			return null;
+		MSG.Request req = msg.request();
+		Template[] tpl = req == null ? null : templates.get(req.getClass());
+		if (tpl == null)
+			return null;
+		try {
+			for (Field f : others) {
+				Object v = f.get(msg);
+				if (v != null && v != req)
+					return null;
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		String[] values = new String[MARKS.length];
+		values[NUM] = req.getRequestNum() == null ? null : req.getRequestNum().toString();
+		values[NYM] = req.getNymID();
+		values[SERVER] = req.getServerID();
+		if (req instanceof MSG.GetInbox)
+			values[ACCOUNT] = ((MSG.GetInbox) req).getAccountID();
+		else if (req instanceof MSG.GetOutbox)
+			values[ACCOUNT] = ((MSG.GetOutbox) req).getAccountID();
+		else if (req instanceof MSG.GetAccount)
+			values[ACCOUNT] = ((MSG.GetAccount) req).getAccountID();
+		Template t = tpl[0];
+		OT.NumList ack = msg.getAckReplies();
+		if (ack != null) {
+			t = tpl[1];
+			values[ACK_SERVER] = ack.serverID;
+			values[ACK] = ack.armored();
+		}
+		for (int s : t.slots)
+			if (!plain(values[s], s == ACK))
+				return null;
+		return t.fill(values);
+	}
+
+	/*
+	 * values xstream writes as they are, anything needing escaping is left to xstream
+	 */
+	static boolean plain(String value, boolean text) {
+		if (value == null)
+			return false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\n' ? !text : c < 0x20 || c >= 0x7f || c == '&' || c == '<' || c == '>' || c == '"'
+					|| c == '\'')
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.lang.reflect.Field;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kactech.otj.model.BasicConnectionInfo;
+import com.kactech.otj.model.ConnectionInfo;
+import com.kactech.otj.model.OTSignature;
+import com.kactech.otj.model.SigningSupport;
+
+/**
+ * Checks notary signatures of response messages and of the accounts, ledgers and transactions in them. Verified
+ * (signed text, key) pairs are kept in {@link ParseCache#signatures}, so receipts seen again cost no RSA. With
+ * executor set verification runs there, off the request thread; failures are logged and counted. With strict
+ * verifier the client waits for the check before handing the response over and refuses the one that fails.
+ */
+public class SignatureVerifier {
+	static final Logger logger = LoggerFactory.getLogger(SignatureVerifier.class);
+
+	final PublicKey key;
+	final String keyID;
+	ExecutorService executor;
+	boolean strict;
+	final AtomicLong verified = new AtomicLong(), cached = new AtomicLong(), failed = new AtomicLong();
+
+	public SignatureVerifier(PublicKey key) {
+		this(key, null);
+	}
+
+	public SignatureVerifier(PublicKey key, ExecutorService executor) {
+		this.key = key;
+		this.keyID = Utils.samy62(key.getEncoded());
+		this.executor = executor;
+	}
+
+	/**
+	 * key of connection info, for other implementations than {@link BasicConnectionInfo} the public key
+	 */
+	public static PublicKey signingKey(ConnectionInfo info) {
+		if (info instanceof BasicConnectionInfo)
+			return ((BasicConnectionInfo) info).getSigningKey();
+		return info.getPublicKey();
+	}
+
+	/**
+	 * waits for result of check of received message
+	 * 
+	 * @return false if not checked or failed
+	 */
+	public static boolean isVerified(MSG.Message msg) {
+		Future<Boolean> v = msg.getVerification();
+		if (v == null)
+			return false;
+		try {
+			return Boolean.TRUE.equals(v.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			logger.warn("signature check", e.getCause());
+			return false;
+		}
+	}
+
+	/**
+	 * verifies the message on executor (in this thread when not set or rejecting)
+	 * 
+	 * @return true if all signatures are the notary's
+	 */
+	public Future<Boolean> submit(final MSG.Message msg) {
+		Callable<Boolean> task = new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return verify(msg);
+			}
+		};
+		if (executor != null)
+			try {
+				return executor.submit(task);
+			} catch (RejectedExecutionException e) {
+				logger.debug("executor rejected signature check, checking here");
+			}
+		FutureTask<Boolean> future = new FutureTask<Boolean>(task);
+		future.run();
+		return future;
+	}
+
+	/**
+	 * @return true if the message and the signed entities of its response are signed by the notary
+	 */
+	public boolean verify(MSG.Message msg) {
+		List<SigningSupport> signed = new ArrayList<SigningSupport>();
+		signed.add(msg);
+		MSG.Response resp = msg.response();
+		if (resp != null)
+			nested(resp, signed);
+		boolean ok = true;
+		for (SigningSupport s : signed)
+			if (!verify(s)) {
+				failed.incrementAndGet();
+				logger.error("notary signature check failed: {} in response {}", s.getClass().getSimpleName(),
+						resp == null ? null : resp.getRequestNum());
+				ok = false;
+			}
+		return ok;
+	}
+
+	public boolean verify(SigningSupport s) {
+		if (s.getSigned() == null || s.getUnsigned() == null || s.getSignatures() == null)
+			return false;
+		String cacheKey = ParseCache.key(s.getSigned()) + ' ' + keyID;
+		if (ParseCache.signatures.get(cacheKey) != null) {
+			cached.incrementAndGet();
+			return true;
+		}
+		for (OTSignature sig : s.getSignatures())
+			try {
+				if (Utils.verify(s.getUnsigned(), key, sig.getValue())) {
+					verified.incrementAndGet();
+					ParseCache.signatures.put(cacheKey, Boolean.TRUE);
+					return true;
+				}
+			} catch (Exception e) {
+				logger.debug("signature check", e);
+			}
+		return false;
+	}
+
+	// signed entity fields by response class
+	static final Map<Class<?>, List<Field>> fields = new HashMap<Class<?>, List<Field>>();
+
+	static List<Field> fields(Class<?> type) {
+		synchronized (fields) {
+			List<Field> list = fields.get(type);
+			if (list == null) {
+				list = new ArrayList<Field>();
+				for (Field f : type.getDeclaredFields())
+					if (OT.Account.class == f.getType() || OT.Ledger.class == f.getType()
+							|| OT.Transaction.class == f.getType()) {
+						f.setAccessible(true);
+						list.add(f);
+					}
+				fields.put(type, list);
+			}
+			return list;
+		}
+	}
+
+	/*
+	 * account, ledgers with their transactions and box receipt; inReferenceTo is ours, not notary's
+	 */
+	static void nested(MSG.Response resp, List<SigningSupport> out) {
+		try {
+			for (Field f : fields(resp.getClass())) {
+				Object o = f.get(resp);
+				if (o == null)
+					continue;
+				out.add((SigningSupport) o);
+				if (o instanceof OT.Ledger && ((OT.Ledger) o).getTransactions() != null)
+					out.addAll(((OT.Ledger) o).getTransactions());
+			}
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// get/set
+
+	public PublicKey getKey() {
+		return key;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public boolean isStrict() {
+		return strict;
+	}
+
+	public void setStrict(boolean strict) {
+		this.strict = strict;
+	}
+
+	public long getVerified() {
+		return verified.get();
+	}
+
+	public long getCached() {
+		return cached.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+}
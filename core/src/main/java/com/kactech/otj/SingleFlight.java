@@ -0,0 +1,125 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller runs it, the ones coming meanwhile wait and get the
+ * same result (or exception). Calls coming after it finished run again, nothing is cached.
+ */
+public class SingleFlight<K, V> {
+	static class Call<V> {
+		final CountDownLatch done = new CountDownLatch(1);
+		V value;
+		RuntimeException error;
+	}
+
+	final Map<K, Call<V>> calls = new HashMap<K, Call<V>>();
+	final AtomicLong executed = new AtomicLong();
+	final AtomicLong coalesced = new AtomicLong();
+
+	public V run(K key, Callable<V> fn) {
+		Call<V> call;
+		boolean leader = false;
+		synchronized (calls) {
+			call = calls.get(key);
+			if (call == null) {
+				calls.put(key, call = new Call<V>());
+				leader = true;
+			}
+		}
+		if (!leader) {
+			coalesced.incrementAndGet();
+			try {
+				call.done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		} else {
+			executed.incrementAndGet();
+			try {
+				call.value = fn.call();
+			} catch (RuntimeException e) {
+				call.error = e;
+			} catch (Exception e) {
+				call.error = new RuntimeException(e);
+			} finally {
+				synchronized (calls) {
+					calls.remove(key);
+				}
+				call.done.countDown();
+			}
+		}
+		if (call.error != null)
+			throw call.error;
+		return call.value;
+	}
+
+	/**
+	 * @return calls that went through
+	 */
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * @return calls that got result of another one in flight
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import com.kactech.otj.model.BasicUserAccount;
+
+/**
+ * Versioned binary snapshot of {@link BasicUserAccount} and {@link EClient.State}, much faster to load than the JSON
+ * files (no decimal BigIntegers, no reflection). RSA private keys keep their CRT parameters when available, so
+ * signing stays fast after load.
+ * 
+ * <pre>
+ * int magic "OTJS", int version
+ * account: nymID, nymIDSource, pairs, cpairs, sources, csources
+ * state: assetType, accountID, transactionNums ranges, issuedNums ranges, accounts, nymboxHandled ranges,
+ *   long generation
+ * long crc32 of all above
+ * </pre>
+ */
+public class Snapshots {
+	static final int MAGIC = 0x4f544a53;
+	public static final int VERSION = 1;
+
+	public static class Snapshot {
+		public BasicUserAccount userAccount;
+		public EClient.State state;
+	}
+
+	public static void write(File file, BasicUserAccount account, EClient.State state) throws IOException {
+		Utils.writeAtomic(file, write(account, state));
+	}
+
+	public static byte[] write(BasicUserAccount account, EClient.State state) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(8192);
+		DataOutputStream out = new DataOutputStream(bos);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeString(out, account.getNymID());
+		writeString(out, account.getNymIDSource());
+		writeKeyPairs(out, account.getPairs());
+		writeKeyPairs(out, account.getCpairs());
+		writeStrings(out, account.getSources());
+		writeStrings(out, account.getCsources());
+		writeString(out, state.assetType);
+		writeString(out, state.accountID);
+		writeNums(out, state.transactionNums);
+		writeNums(out, state.issuedNums);
+		writeStrings(out, state.accounts == null ? new LinkedHashMap<String, String>() : state.accounts);
+		writeNums(out, state.nymboxHandled == null ? new LongSet() : state.nymboxHandled);
+		out.writeLong(state.generation);
+		out.flush();
+		CRC32 crc = new CRC32();
+		crc.update(bos.toByteArray());
+		out.writeLong(crc.getValue());
+		out.close();
+		return bos.toByteArray();
+	}
+
+	/**
+	 * @param mmap
+	 *            map the file instead of reading it (keeps the file open until buffer is collected, some platforms
+	 *            won't allow replacing it meanwhile)
+	 */
+	public static Snapshot read(File file, boolean mmap) throws IOException {
+		if (mmap) {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				FileChannel ch = fis.getChannel();
+				return read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+			} finally {
+				fis.close();
+			}
+		}
+		return read(ByteBuffer.wrap(Utils.readBytes(file)));
+	}
+
+	public static Snapshot read(ByteBuffer buff) {
+		int length = buff.remaining();
+		if (length < 16 || buff.getInt(buff.position()) != MAGIC)
+			throw new IllegalStateException("not a snapshot");
+		byte[] body = new byte[length - 8];
+		buff.duplicate().get(body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if (crc.getValue() != buff.getLong(buff.position() + length - 8))
+			throw new IllegalStateException("snapshot checksum mismatch");
+
+		buff.getInt();
+		int version = buff.getInt();
+		if (version != VERSION)
+			throw new IllegalStateException("unsupported snapshot version " + version);
+		Snapshot snap = new Snapshot();
+		BasicUserAccount account = new BasicUserAccount(readString(buff), readString(buff));
+		try {
+			readKeyPairs(buff, account.getPairs());
+			readKeyPairs(buff, account.getCpairs());
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+		readStrings(buff, account.getSources());
+		readStrings(buff, account.getCsources());
+		snap.userAccount = account;
+		EClient.State state = new EClient.State();
+		state.assetType = readString(buff);
+		state.accountID = readString(buff);
+		state.transactionNums = readNums(buff);
+		state.issuedNums = readNums(buff);
+		state.accounts = new LinkedHashMap<String, String>();
+		readStrings(buff, state.accounts);
+		state.nymboxHandled = readNums(buff);
+		state.generation = buff.getLong();
+		snap.state = state;
+		return snap;
+	}
+
+	// write
+
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] by = Utils.bytes(str, Utils.UTF8);
+		out.writeInt(by.length);
+		out.write(by);
+	}
+
+	static void writeStrings(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for (Entry<String, String> e : map.entrySet()) {
+			writeString(out, e.getKey());
+			writeString(out, e.getValue());
+		}
+	}
+
+	static void writeBig(DataOutputStream out, BigInteger big) throws IOException {
+		byte[] by = big.toByteArray();
+		out.writeInt(by.length);
+		out.write(by);
+	}
+
+	static void writeKeyPairs(DataOutputStream out, Map<String, KeyPair> map) throws IOException {
+		out.writeInt(map.size());
+		for (Entry<String, KeyPair> e : map.entrySet()) {
+			writeString(out, e.getKey());
+			RSAPublicKey pub = (RSAPublicKey) e.getValue().getPublic();
+			RSAPrivateKey priv = (RSAPrivateKey) e.getValue().getPrivate();
+			writeBig(out, pub.getModulus());
+			writeBig(out, pub.getPublicExponent());
+			writeBig(out, priv.getPrivateExponent());
+			if (priv instanceof RSAPrivateCrtKey) {
+				RSAPrivateCrtKey crt = (RSAPrivateCrtKey) priv;
+				out.writeBoolean(true);
+				writeBig(out, crt.getPrimeP());
+				writeBig(out, crt.getPrimeQ());
+				writeBig(out, crt.getPrimeExponentP());
+				writeBig(out, crt.getPrimeExponentQ());
+				writeBig(out, crt.getCrtCoefficient());
+			} else
+				out.writeBoolean(false);
+		}
+	}
+
+	static void writeNums(DataOutputStream out, LongSet nums) throws IOException {
+		out.writeInt(nums.rangeCount());
+		for (int i = 0; i < nums.rangeCount(); i++) {
+			out.writeLong(nums.rangeStart(i));
+			out.writeLong(nums.rangeEnd(i));
+		}
+	}
+
+	// read
+
+	static String readString(ByteBuffer buff) {
+		int len = buff.getInt();
+		if (len < 0)
+			return null;
+		byte[] by = new byte[len];
+		buff.get(by);
+		return Utils.string(by, Utils.UTF8);
+	}
+
+	static void readStrings(ByteBuffer buff, Map<String, String> map) {
+		for (int n = buff.getInt(); n > 0; n--)
+			map.put(readString(buff), readString(buff));
+	}
+
+	static BigInteger readBig(ByteBuffer buff) {
+		byte[] by = new byte[buff.getInt()];
+		buff.get(by);
+		return new BigInteger(by);
+	}
+
+	static void readKeyPairs(ByteBuffer buff, Map<String, KeyPair> map) throws GeneralSecurityException {
+		KeyFactory kf = KeyFactory.getInstance("RSA");
+		for (int n = buff.getInt(); n > 0; n--) {
+			String name = readString(buff);
+			BigInteger mod = readBig(buff);
+			BigInteger pubExp = readBig(buff);
+			BigInteger privExp = readBig(buff);
+			PublicKey pub = kf.generatePublic(new RSAPublicKeySpec(mod, pubExp));
+			PrivateKey priv;
+			if (buff.get() != 0)
+				priv = kf.generatePrivate(new RSAPrivateCrtKeySpec(mod, pubExp, privExp, readBig(buff),
+						readBig(buff), readBig(buff), readBig(buff), readBig(buff)));
+			else
+				priv = kf.generatePrivate(new RSAPrivateKeySpec(mod, privExp));
+			map.put(name, new KeyPair(pub, priv));
+		}
+	}
+
+	static LongSet readNums(ByteBuffer buff) {
+		LongSet nums = new LongSet();
+		for (int n = buff.getInt(); n > 0; n--) {
+			long start = buff.getLong();
+			nums.addRange(start, buff.getLong());
+		}
+		return nums;
+	}
+}
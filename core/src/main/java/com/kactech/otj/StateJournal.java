@@ -0,0 +1,322 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of {@link EClient.State} changes, so a crash between snapshots (state.json) loses nothing.
+ * Every entry is the difference against the previously journaled state (numbers granted/consumed as ranges,
+ * account changes): records separated by ';' on one line with CRC32 prefix, so an entry is replayed whole or not
+ * at all. Entries are replayed over the snapshot on start, a torn tail is cut off. Each entry is on disk before
+ * {@link #record(EClient.State)} returns. First line is the generation of the state the journal was started for;
+ * journal of other generation is not replayed but moved aside, its differences don't apply.
+ * 
+ * <pre>
+ * crc G 12
+ * crc T+ 100:109,120;I- 104
+ * crc A accountID;N+ accountID assetType
+ * crc N- accountID
+ * crc H+ 5003,5010
+ * </pre>
+ */
+public class StateJournal implements Closeable {
+	static final Logger logger = LoggerFactory.getLogger(StateJournal.class);
+	static final char SEPARATOR = ';';
+	public static int COMPACT_RECORDS = 1000;
+
+	File file;
+	RandomAccessFile raf;
+	FileChannel channel;
+	int records;
+
+	// last journaled
+	LongSet transactionNums = new LongSet();
+	LongSet issuedNums = new LongSet();
+	LongSet nymboxHandled = new LongSet();
+	String accountID;
+	String assetType;
+	Map<String, String> accounts = new LinkedHashMap<String, String>();
+
+	public StateJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * replays existing records onto state and opens the journal for appending
+	 */
+	public synchronized void open(EClient.State state) throws IOException {
+		file.getParentFile().mkdirs();
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		long valid = replay(state);
+		if (valid < 0) {
+			File stale = new File(file.getPath() + ".stale");
+			logger.error("journal {} was started for other state generation, not replayed, moved to {}", file,
+					stale);
+			raf.close();
+			stale.delete();
+			if (!file.renameTo(stale))
+				throw new IOException("cannot move stale journal " + file);
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			valid = 0;
+		}
+		if (valid < channel.size()) {
+			logger.warn("journal {} has broken tail, truncating {} bytes", file, channel.size() - valid);
+			channel.truncate(valid);
+		}
+		channel.position(valid);
+		if (valid == 0)
+			writeGeneration(state);
+		remember(state);
+	}
+
+	void writeGeneration(EClient.State state) throws IOException {
+		String rec = "G " + state.generation;
+		ByteBuffer buff = ByteBuffer.wrap(Utils.bytes(Long.toHexString(crc(rec)) + ' ' + rec + '\n', Utils.UTF8));
+		while (buff.hasRemaining())
+			channel.write(buff);
+		channel.force(true);
+	}
+
+	long replay(EClient.State state) throws IOException {
+		long size = channel.size();
+		if (size == 0)
+			return 0;
+		ByteBuffer buff = ByteBuffer.allocate((int) size);
+		channel.position(0);
+		while (buff.hasRemaining() && channel.read(buff) >= 0)
+			;
+		byte[] by = buff.array();
+		int pos = 0;
+		int replayed = 0;
+		while (pos < by.length) {
+			int eol = pos;
+			while (eol < by.length && by[eol] != '\n')
+				eol++;
+			if (eol == by.length)
+				break;// no newline, torn write
+			String line = Utils.string(by, pos, eol - pos, Utils.UTF8);
+			int sp = line.indexOf(' ');
+			if (sp < 0 || !Long.toHexString(crc(line.substring(sp + 1))).equals(line.substring(0, sp)))
+				break;
+			String entry = line.substring(sp + 1);
+			if (entry.startsWith("G ")) {
+				if (Long.parseLong(entry.substring(2)) != state.generation)
+					return -1;
+			} else
+				for (String rec : entry.split(String.valueOf(SEPARATOR))) {
+					apply(state, rec);
+					replayed++;
+				}
+			pos = eol + 1;
+		}
+		records = replayed;
+		if (replayed > 0)
+			logger.info("replayed {} journal records", replayed);
+		return pos;
+	}
+
+	static void apply(EClient.State state, String rec) {
+		String op = rec.substring(0, 2);
+		String arg = rec.substring(op.charAt(1) == ' ' ? 2 : 3);
+		if (op.equals("T+"))
+			parseRanges(arg, state.transactionNums, true);
+		else if (op.equals("T-"))
+			parseRanges(arg, state.transactionNums, false);
+		else if (op.equals("I+"))
+			parseRanges(arg, state.issuedNums, true);
+		else if (op.equals("I-"))
+			parseRanges(arg, state.issuedNums, false);
+		else if (op.equals("H+"))
+			parseRanges(arg, state.nymboxHandled, true);
+		else if (op.equals("H-"))
+			parseRanges(arg, state.nymboxHandled, false);
+		else if (op.equals("A "))
+			state.accountID = arg.length() == 0 ? null : arg;
+		else if (op.equals("S "))
+			state.assetType = arg.length() == 0 ? null : arg;
+		else if (op.equals("N+")) {
+			int sp = arg.indexOf(' ');
+			state.accounts.put(arg.substring(0, sp), arg.substring(sp + 1));
+		} else if (op.equals("N-"))
+			state.accounts.remove(arg);
+		else
+			throw new IllegalStateException("unknown journal record " + rec);
+	}
+
+	/**
+	 * appends changes since last record/reset as one entry and forces it to disk
+	 */
+	public synchronized void record(EClient.State state) throws IOException {
+		List<String> recs = new ArrayList<String>();
+		diff(recs, "T", transactionNums, state.transactionNums);
+		diff(recs, "I", issuedNums, state.issuedNums);
+		diff(recs, "H", nymboxHandled, state.nymboxHandled);
+		if (!eq(accountID, state.accountID))
+			recs.add("A " + (state.accountID == null ? "" : state.accountID));
+		if (!eq(assetType, state.assetType))
+			recs.add("S " + (state.assetType == null ? "" : state.assetType));
+		for (Entry<String, String> e : state.accounts.entrySet())
+			if (!eq(accounts.get(e.getKey()), e.getValue()))
+				recs.add("N+ " + e.getKey() + " " + e.getValue());
+		for (String id : accounts.keySet())
+			if (!state.accounts.containsKey(id))
+				recs.add("N- " + id);
+		if (recs.isEmpty())
+			return;
+		StringBuilder b = new StringBuilder();
+		for (String rec : recs) {
+			if (b.length() > 0)
+				b.append(SEPARATOR);
+			b.append(rec);
+		}
+		String entry = b.toString();
+		ByteBuffer buff = ByteBuffer.wrap(Utils.bytes(Long.toHexString(crc(entry)) + ' ' + entry + '\n',
+				Utils.UTF8));
+		while (buff.hasRemaining())
+			channel.write(buff);
+		channel.force(false);
+		records += recs.size();
+		remember(state);
+	}
+
+	/**
+	 * snapshot of state was written, journal starts over
+	 */
+	public synchronized void reset(EClient.State state) throws IOException {
+		channel.truncate(0);
+		channel.position(0);
+		writeGeneration(state);
+		records = 0;
+		remember(state);
+	}
+
+	public synchronized boolean needsCompaction() {
+		return records >= COMPACT_RECORDS;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (raf != null) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+	}
+
+	void remember(EClient.State state) {
+		transactionNums = new LongSet(state.transactionNums);
+		issuedNums = new LongSet(state.issuedNums);
+		nymboxHandled = new LongSet(state.nymboxHandled);
+		accountID = state.accountID;
+		assetType = state.assetType;
+		accounts = new LinkedHashMap<String, String>(state.accounts);
+	}
+
+	static void diff(List<String> recs, String name, LongSet before, LongSet after) {
+		LongSet added = LongSet.difference(after, before);
+		if (!added.isEmpty())
+			recs.add(name + "+ " + formatRanges(added));
+		LongSet removed = LongSet.difference(before, after);
+		if (!removed.isEmpty())
+			recs.add(name + "- " + formatRanges(removed));
+	}
+
+	static String formatRanges(LongSet set) {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < set.rangeCount(); i++) {
+			if (i > 0)
+				b.append(',');
+			b.append(set.rangeStart(i));
+			if (set.rangeEnd(i) != set.rangeStart(i))
+				b.append(':').append(set.rangeEnd(i));
+		}
+		return b.toString();
+	}
+
+	static void parseRanges(String str, LongSet set, boolean add) {
+		for (String r : str.split(",")) {
+			int c = r.indexOf(':');
+			long from = Long.parseLong(c < 0 ? r : r.substring(0, c));
+			long to = c < 0 ? from : Long.parseLong(r.substring(c + 1));
+			if (add)
+				set.addRange(from, to);
+			else
+				set.removeRange(from, to);
+		}
+	}
+
+	static long crc(String rec) {
+		CRC32 crc = new CRC32();
+		crc.update(Utils.bytes(rec, Utils.UTF8));
+		return crc.getValue();
+	}
+
+	static boolean eq(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
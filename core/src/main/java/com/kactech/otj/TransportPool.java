@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed number of connections to one server shared by many clients. Every send borrows a free connection for the
+ * time of one request (or one pipelined batch), so clients with their own request sequences never wait for each
+ * other longer than a round trip.
+ */
+public class TransportPool implements PipelinedTransport {
+	final BlockingQueue<Transport> free;
+	final List<Transport> all;
+
+	public TransportPool(String endpoint, int size) {
+		all = new ArrayList<Transport>(size);
+		for (int i = 0; i < size; i++)
+			all.add(new JeromqTransport(endpoint));
+		free = new ArrayBlockingQueue<Transport>(size, false, all);
+	}
+
+	Transport borrow() {
+		try {
+			return free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public byte[] send(byte[] message) {
+		Transport t = borrow();
+		try {
+			return t.send(message);
+		} finally {
+			free.add(t);
+		}
+	}
+
+	@Override
+	public List<byte[]> sendAll(List<byte[]> messages) {
+		Transport t = borrow();
+		try {
+			if (t instanceof PipelinedTransport)
+				return ((PipelinedTransport) t).sendAll(messages);
+			List<byte[]> replies = new ArrayList<byte[]>(messages.size());
+			for (byte[] message : messages)
+				replies.add(t.send(message));
+			return replies;
+		} finally {
+			free.add(t);
+		}
+	}
+
+	/**
+	 * @return view of the pool for one client, closing it leaves the pool open
+	 */
+	public PipelinedTransport share() {
+		return new PipelinedTransport() {
+			@Override
+			public byte[] send(byte[] message) {
+				return TransportPool.this.send(message);
+			}
+
+			@Override
+			public List<byte[]> sendAll(List<byte[]> messages) {
+				return TransportPool.this.sendAll(messages);
+			}
+
+			@Override
+			public void close() throws IOException {
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Transport t : all)
+			t.close();
+	}
+}
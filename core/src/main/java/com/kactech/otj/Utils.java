@@ -63,7 +63,13 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -77,8 +83,12 @@ import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.zip.DataFormatException;
@@ -88,6 +98,7 @@ import java.util.zip.Inflater;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.DocumentBuilder;
@@ -425,108 +436,331 @@ public class Utils {
 	/*
 	 * seal
 	 */
+	static final int CIPHER_CHUNK = 8192;
+
 	public static ByteBuffer seal(String msg, String nymID, PublicKey nymKey)
 			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException {
-		SecureRandom random = new SecureRandom();
-		byte[] aesKey = new byte[16];
-		random.nextBytes(aesKey);
-		byte[] vector = new byte[16];
-		random.nextBytes(vector);
-		return seal(msg, nymID, nymKey, new SecretKeySpec(aesKey, "AES")
-				, new IvParameterSpec(vector));
+		return seal(msg, Collections.singletonMap(nymID, nymKey));
 	}
 
 	public static ByteBuffer seal(String msg, String nymID, PublicKey nymKey, SecretKeySpec aesSecret,
 			IvParameterSpec vector)
 			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException {
-		ByteBuffer buff = ByteBuffer.allocate(msg.length() + 500);//donno?
+		return seal(msg, Collections.singletonMap(nymID, nymKey), aesSecret, vector);
+	}
+
+	/**
+	 * multi-recipient envelope, message is encrypted only once, session key is wrapped for every nym
+	 * 
+	 * @param recipients
+	 *            nymID -> encryption key
+	 */
+	public static ByteBuffer seal(String msg, Map<String, PublicKey> recipients)
+			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException {
+		return seal(msg, recipients, newSessionKey(), newVector());
+	}
+
+	public static ByteBuffer seal(String msg, Map<String, PublicKey> recipients, SecretKeySpec aesSecret,
+			IvParameterSpec vector)
+			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException {
+		return seal(msg, recipients, aesSecret, vector, false, false);
+	}
+
+	/**
+	 * Envelope is allocated with exact size and the message is encoded and encrypted chunk by chunk right into it.
+	 * 
+	 * @param packed
+	 *            prepend protobuf blob header, result is the same as {@link #pack(ByteBuffer)} of the envelope
+	 * @param direct
+	 *            allocate direct buffer
+	 */
+	public static ByteBuffer seal(String msg, Map<String, PublicKey> recipients, SecretKeySpec aesSecret,
+			IvParameterSpec vector, boolean packed, boolean direct)
+			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException {
+		Map<String, byte[]> wrapped = wrapKeys(recipients, aesSecret);
+		Cipher cipher = aesCipher(Cipher.ENCRYPT_MODE, aesSecret, vector);
+		int size = envelopeHeaderSize(wrapped, vector.getIV().length) + cipher.getOutputSize(utf8Length(msg) + 1);
+		int prefix = packed ? 1 + varintSize(size) : 0;
+		ByteBuffer buff = direct ? ByteBuffer.allocateDirect(prefix + size) : ByteBuffer.allocate(prefix + size);
 		buff.order(ByteOrder.BIG_ENDIAN);
-		buff.putShort((short) 1);//asymmetric
-		buff.putInt(1);//array size
-		buff.putInt(nymID.length() + 1);
-		buff.put(bytes(nymID + '\0', US_ASCII));
+		if (packed) {
+			buff.put((byte) 0x0A);// field 1, length delimited
+			putVarint(buff, size);
+		}
+		putEnvelopeHeader(buff, wrapped, vector.getIV());
+		try {
+			encrypt(cipher, msg, buff, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);// no channel
+		}
+		if (packed && buff.hasRemaining())
+			throw new IllegalStateException("envelope size mismatch");
+		buff.flip();
+
+		return buff;
+	}
 
-		// create encoded key and message
+	/**
+	 * streams envelope to the channel, plain message is never held encoded in memory as a whole
+	 * 
+	 * @return bytes written
+	 */
+	public static int seal(String msg, Map<String, PublicKey> recipients, WritableByteChannel out)
+			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException, IOException {
+		SecretKeySpec aesSecret = newSessionKey();
+		IvParameterSpec vector = newVector();
+		Map<String, byte[]> wrapped = wrapKeys(recipients, aesSecret);
+		Cipher cipher = aesCipher(Cipher.ENCRYPT_MODE, aesSecret, vector);
+		int headerSize = envelopeHeaderSize(wrapped, vector.getIV().length);
+		ByteBuffer buff = ByteBuffer.allocate(Math.max(headerSize, cipher.getOutputSize(CIPHER_CHUNK)));
+		buff.order(ByteOrder.BIG_ENDIAN);
+		putEnvelopeHeader(buff, wrapped, vector.getIV());
+		buff.flip();
+		while (buff.hasRemaining())
+			out.write(buff);
+		buff.clear();
+		return headerSize + encrypt(cipher, msg, buff, out);
+	}
+
+	static SecretKeySpec newSessionKey() {
+		byte[] aesKey = new byte[16];
+		new SecureRandom().nextBytes(aesKey);
+		return new SecretKeySpec(aesKey, "AES");
+	}
+
+	static IvParameterSpec newVector() {
+		byte[] vector = new byte[16];
+		new SecureRandom().nextBytes(vector);
+		return new IvParameterSpec(vector);
+	}
+
+	static Cipher aesCipher(int mode, SecretKeySpec aesSecret, IvParameterSpec vector) throws InvalidKeyException,
+			InvalidAlgorithmParameterException {
 		Cipher cipher;
 		try {
 			cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		cipher.init(Cipher.ENCRYPT_MODE, aesSecret, vector);
-		byte[] encrypted = cipher.doFinal(bytes(msg + '\0', UTF8));
+		cipher.init(mode, aesSecret, vector);
+		return cipher;
+	}
+
+	static Map<String, byte[]> wrapKeys(Map<String, PublicKey> recipients, SecretKeySpec aesSecret)
+			throws InvalidKeyException, IllegalBlockSizeException {
+		if (recipients.isEmpty())
+			throw new IllegalArgumentException("no recipients");
+		Cipher cipher;
 		try {
 			cipher = Cipher.getInstance(WRAP_ALGO);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		cipher.init(Cipher.WRAP_MODE, nymKey);
-		byte[] encKeyBytes = cipher.wrap(aesSecret);
+		Map<String, byte[]> wrapped = new LinkedHashMap<String, byte[]>();
+		for (Entry<String, PublicKey> e : recipients.entrySet()) {
+			cipher.init(Cipher.WRAP_MODE, e.getValue());
+			wrapped.put(e.getKey(), cipher.wrap(aesSecret));
+		}
+		return wrapped;
+	}
 
-		buff.putInt(encKeyBytes.length);
-		buff.put(encKeyBytes);
-		buff.putInt(vector.getIV().length);
-		buff.put(vector.getIV());
-		buff.put(encrypted);
-		buff.flip();
+	static int envelopeHeaderSize(Map<String, byte[]> wrapped, int vectorLength) {
+		int size = 2 + 4;
+		for (Entry<String, byte[]> e : wrapped.entrySet())
+			size += 4 + e.getKey().length() + 1 + 4 + e.getValue().length;
+		return size + 4 + vectorLength;
+	}
 
-		return buff;
+	/*
+	 * as OT's EVP_SealInit envelope: nymID/wrapped key entries, then one IV for all
+	 */
+	static void putEnvelopeHeader(ByteBuffer buff, Map<String, byte[]> wrapped, byte[] vector) {
+		buff.putShort((short) 1);//asymmetric
+		buff.putInt(wrapped.size());//array size
+		for (Entry<String, byte[]> e : wrapped.entrySet()) {
+			buff.putInt(e.getKey().length() + 1);
+			buff.put(bytes(e.getKey() + '\0', US_ASCII));
+			buff.putInt(e.getValue().length);
+			buff.put(e.getValue());
+		}
+		buff.putInt(vector.length);
+		buff.put(vector);
+	}
+
+	/**
+	 * Encodes msg + '\0' to UTF-8 and encrypts it chunk by chunk into out. With channel, out is flushed to it after
+	 * every chunk.
+	 * 
+	 * @return encrypted bytes
+	 */
+	static int encrypt(Cipher cipher, String msg, ByteBuffer out, WritableByteChannel channel)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+		CharsetEncoder encoder = Charset.forName(UTF8).newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.wrap(msg);
+		ByteBuffer in = ByteBuffer.allocate(CIPHER_CHUNK);
+		int written = 0;
+		boolean last = false;
+		while (!last) {
+			CoderResult cr = encoder.encode(chars, in, true);
+			if (cr.isError())
+				cr.throwException();
+			last = cr.isUnderflow() && in.hasRemaining();
+			if (last) {
+				encoder.flush(in);
+				in.put((byte) 0);
+			}
+			in.flip();
+			try {
+				written += last ? cipher.doFinal(in, out) : cipher.update(in, out);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e);
+			}
+			in.clear();
+			if (channel != null) {
+				out.flip();
+				while (out.hasRemaining())
+					channel.write(out);
+				out.clear();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * UTF-8 encoded length, lone surrogates count as replacement '?'
+	 */
+	public static int utf8Length(CharSequence str) {
+		int len = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c < 0x80)
+				len++;
+			else if (c < 0x800)
+				len += 2;
+			else if (Character.isHighSurrogate(c)) {
+				if (i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+					len += 4;
+					i++;
+				} else
+					len++;
+			} else if (Character.isLowSurrogate(c))
+				len++;
+			else
+				len += 3;
+		}
+		return len;
+	}
+
+	static int varintSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0)
+			size++;
+		return size;
+	}
+
+	static void putVarint(ByteBuffer buff, int value) {
+		while ((value & ~0x7f) != 0) {
+			buff.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buff.put((byte) value);
 	}
 
 	public static byte[] sealToB64(String msg, String nymID, PublicKey nymKey)
 			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException {
-
-		ByteBuffer buff = seal(msg, nymID, nymKey);
-		return base64Encode(pack(buff), true);
+		return sealToB64(msg, nymID, nymKey, newSessionKey(), newVector());
 	}
 
 	public static byte[] sealToB64(String msg, String nymID, PublicKey nymKey, SecretKeySpec aesSecret,
 			IvParameterSpec vector)
 			throws InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException {
-		ByteBuffer buff = seal(msg, nymID, nymKey, aesSecret, vector);
-		return base64Encode(pack(buff), true);
+		ByteBuffer buff = seal(msg, Collections.singletonMap(nymID, nymKey), aesSecret, vector, true, false);
+		return base64Encode(buff.array(), true);
+	}
+
+	/**
+	 * view of packed blob value, without copying
+	 */
+	public static ByteBuffer unpackBlob(byte[] packed) throws PackerException {
+		try {
+			if (packed.length > 1 && packed[0] == 0x0A) {
+				int len = 0, shift = 0, i = 1;
+				byte b;
+				do {
+					b = packed[i++];
+					len |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0 && shift < 32);
+				if (b >= 0 && len >= 0 && i + len == packed.length)
+					return ByteBuffer.wrap(packed, i, len).slice();
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+		return ByteBuffer.wrap(unpack(packed, byte[].class));
 	}
 
 	public static String open(byte[] encryptedEnvelope, PrivateKey privateKey) throws InvalidKeyException,
 			NoSuchAlgorithmException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
 			BadPaddingException {
-		String str;
+		return open(ByteBuffer.wrap(encryptedEnvelope), null, privateKey);
+	}
+
+	public static String open(byte[] encryptedEnvelope, String nymID, PrivateKey privateKey)
+			throws InvalidKeyException, NoSuchAlgorithmException, InvalidAlgorithmParameterException,
+			IllegalBlockSizeException, BadPaddingException {
+		return open(ByteBuffer.wrap(encryptedEnvelope), nymID, privateKey);
+	}
+
+	/**
+	 * Decrypts straight from the envelope buffer (consumes it) into exactly sized output.
+	 * 
+	 * @param nymID
+	 *            selects the entry of multi-recipient envelope, if null every entry is tried with the key
+	 */
+	public static String open(ByteBuffer buff, String nymID, PrivateKey privateKey)
+			throws InvalidKeyException, NoSuchAlgorithmException, InvalidAlgorithmParameterException,
+			IllegalBlockSizeException, BadPaddingException {
 		byte[] by;
-		ByteBuffer buff = ByteBuffer.wrap(encryptedEnvelope);
 		buff.order(ByteOrder.BIG_ENDIAN);
 		int envType = buff.getShort();// expected 1(asymmetric)
 		if (envType != 1)
 			throw new UnsupportedOperationException("unexpected envelope type " + envType);
 		int arraySize = buff.getInt();// can result in negative integer but not expecting it here
-		if (arraySize != 1)//TODO
-			throw new UnsupportedOperationException("current code doesn't support multi-nym response");
-		byte[] encKeyBytes = null;
-		byte[] vectorBytes = null;
+		if (arraySize < 1)
+			throw new IllegalStateException("bad envelope array size " + arraySize);
+		List<byte[]> encKeys = new ArrayList<byte[]>(arraySize);
 		for (int i = 0; i < arraySize; i++) {
 			int nymIDLen = buff.getInt();
 			by = new byte[nymIDLen];
 			buff.get(by);
-			String nymID;
+			String entryNymID;
 			try {
-				nymID = new String(by, 0, by.length - 1, Utils.US_ASCII);
+				entryNymID = new String(by, 0, by.length - 1, Utils.US_ASCII);
 			} catch (UnsupportedEncodingException e) {
 				throw new RuntimeException(e);
 			}// take nymID W/O trailing \0
-				//TODO nymID matching!
 			int keyLength = buff.getInt();
-			encKeyBytes = new byte[keyLength];
+			byte[] encKeyBytes = new byte[keyLength];
 			buff.get(encKeyBytes);
-			int vectorLength = buff.getInt();
-			vectorBytes = new byte[vectorLength];
-			buff.get(vectorBytes);
-
+			if (nymID == null || nymID.equals(entryNymID))
+				encKeys.add(encKeyBytes);
 		}
-		byte[] encryptedMsg = new byte[buff.remaining()];
-		buff.get(encryptedMsg);
+		if (encKeys.isEmpty())
+			throw new IllegalStateException("envelope not sealed for " + nymID);
+		// one IV after the key array
+		int vectorLength = buff.getInt();
+		byte[] vectorBytes = new byte[vectorLength];
+		buff.get(vectorBytes);
 
 		Cipher cipher;
 		try {
@@ -534,21 +768,37 @@ public class Utils {
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		cipher.init(Cipher.UNWRAP_MODE, privateKey);
-		SecretKeySpec aesKey = (SecretKeySpec) cipher.unwrap(encKeyBytes, "AES", Cipher.SECRET_KEY);
-		try {
-			cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-		cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(vectorBytes));
-		by = cipher.doFinal(encryptedMsg);
+		// a wrong entry may unwrap to garbage key, it shows only as bad padding of the data
+		int dataStart = buff.position();
+		ByteBuffer out = null;
+		for (int i = 0; i < encKeys.size() && out == null; i++)
+			try {
+				cipher.init(Cipher.UNWRAP_MODE, privateKey);
+				SecretKeySpec aesKey = (SecretKeySpec) cipher.unwrap(encKeys.get(i), "AES", Cipher.SECRET_KEY);
+				Cipher aes = aesCipher(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(vectorBytes));
+				buff.position(dataStart);
+				out = ByteBuffer.allocate(aes.getOutputSize(buff.remaining()));
+				aes.doFinal(buff, out);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e);
+			} catch (InvalidKeyException e) {
+				out = null;
+				if (i == encKeys.size() - 1)
+					throw e;
+			} catch (BadPaddingException e) {
+				out = null;
+				if (i == encKeys.size() - 1)
+					throw e;
+			} catch (IllegalBlockSizeException e) {
+				out = null;
+				if (i == encKeys.size() - 1)
+					throw e;
+			}
 		try {
-			str = new String(by, 0, by.length - 1, Utils.UTF8);
+			return new String(out.array(), 0, out.position() - 1, Utils.UTF8);
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}// w/o trailing \0
-		return str;
 	}
 
 	/*
@@ -850,6 +1100,32 @@ public class Utils {
 		writeDirs(file, content.getBytes(UTF8));
 	}
 
+	/*
+	 * write to temporary file, sync it and rename over the target, so file has either old or new content
+	 */
+	public static void writeAtomic(File file, byte[] content) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			fos.write(content);
+			fos.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!tmp.renameTo(file)) {
+			// windows doesn't rename over existing file
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("cannot rename " + tmp + " to " + file);
+		}
+	}
+
+	public static void writeAtomic(File file, String content) throws IOException {
+		writeAtomic(file, content.getBytes(UTF8));
+	}
+
 	public static byte[] bytes(String str, String charset) {
 		try {
 			return str.getBytes(charset);
@@ -866,6 +1142,14 @@ public class Utils {
 		}
 	}
 
+	public static String string(byte[] by, int offset, int length, String charset) {
+		try {
+			return new String(by, offset, length, charset);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static byte[] lineBreak(byte[] by, int length) {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		int i = 0;
@@ -0,0 +1,455 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kactech.otj.model.ConnectionInfo;
+
+/**
+ * Hosts many nyms in one process, each one an {@link EClient} in its own directory under root. Nyms share
+ * connections to the server ({@link TransportPool}), crypto workers (sealing/opening for all clients) and a
+ * scheduler. Work for a nym goes to its mailbox and runs one task at a time; mailboxes of different nyms run in
+ * parallel on the workers. Admission: at most maxTenants nyms, at most maxQueued waiting tasks per nym.
+ */
+public class WalletHost implements Closeable {
+	static final Logger logger = LoggerFactory.getLogger(WalletHost.class);
+	public static int DEFAULT_TRANSPORTS = 4;
+	public static int DEFAULT_MAX_TENANTS = 10000;
+	public static int DEFAULT_MAX_QUEUED = 64;
+	// tasks of one nym run in a row before the worker moves on
+	public static int BATCH = 8;
+
+	public static interface Task<T> {
+		public T run(EClient client) throws Exception;
+	}
+
+	public static class Metrics {
+		final AtomicLong submitted = new AtomicLong();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		final AtomicLong busyNanos = new AtomicLong();
+		volatile long lastRun;
+
+		void add(Metrics m) {
+			submitted.addAndGet(m.submitted.get());
+			completed.addAndGet(m.completed.get());
+			failed.addAndGet(m.failed.get());
+			rejected.addAndGet(m.rejected.get());
+			busyNanos.addAndGet(m.busyNanos.get());
+			lastRun = Math.max(lastRun, m.lastRun);
+		}
+
+		@Override
+		public String toString() {
+			return "submitted=" + submitted + " completed=" + completed + " failed=" + failed + " rejected="
+					+ rejected + " busyMs=" + busyNanos.get() / 1000000;
+		}
+
+		// get
+
+		public long getSubmitted() {
+			return submitted.get();
+		}
+
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		public long getRejected() {
+			return rejected.get();
+		}
+
+		public long getBusyNanos() {
+			return busyNanos.get();
+		}
+
+		public long getLastRun() {
+			return lastRun;
+		}
+	}
+
+	public class Tenant {
+		final String name;
+		final EClient client;
+		final Queue<FutureTask<?>> mailbox = new ConcurrentLinkedQueue<FutureTask<?>>();
+		final AtomicInteger queued = new AtomicInteger();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final Metrics metrics = new Metrics();
+		final List<ScheduledFuture<?>> timers = new CopyOnWriteArrayList<ScheduledFuture<?>>();
+		volatile boolean closed;
+		Future<Void> closing;
+
+		final Runnable drain = new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < BATCH; i++) {
+					FutureTask<?> ft = mailbox.poll();
+					if (ft == null)
+						break;
+					queued.decrementAndGet();
+					ft.run();
+				}
+				scheduled.set(false);
+				if (!mailbox.isEmpty())
+					schedule();
+			}
+		};
+
+		Tenant(String name, EClient client) {
+			this.name = name;
+			this.client = client;
+		}
+
+		/**
+		 * queues task, it runs after all tasks submitted before
+		 * 
+		 * @throws RejectedExecutionException
+		 *             when mailbox is full or tenant is closed
+		 */
+		public synchronized <T> Future<T> submit(final Task<T> task) {
+			if (closed)
+				throw new RejectedExecutionException("tenant closed: " + name);
+			return enqueue(task, true);
+		}
+
+		// admit: checks mailbox bound, closing skips it
+		<T> Future<T> enqueue(final Task<T> task, boolean admit) {
+			int n = queued.incrementAndGet();
+			if (admit && n > maxQueued) {
+				queued.decrementAndGet();
+				metrics.rejected.incrementAndGet();
+				throw new RejectedExecutionException("mailbox full: " + name);
+			}
+			FutureTask<T> ft = new FutureTask<T>(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return execute(task);
+				}
+			});
+			metrics.submitted.incrementAndGet();
+			mailbox.add(ft);
+			schedule();
+			return ft;
+		}
+
+		<T> T execute(Task<T> task) throws Exception {
+			long start = System.nanoTime();
+			try {
+				T result = task.run(client);
+				metrics.completed.incrementAndGet();
+				return result;
+			} catch (Exception e) {
+				metrics.failed.incrementAndGet();
+				logger.warn("task of {} failed: {}", name, e.toString());
+				throw e;
+			} finally {
+				metrics.busyNanos.addAndGet(System.nanoTime() - start);
+				metrics.lastRun = System.currentTimeMillis();
+			}
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				workers.execute(drain);
+		}
+
+		/**
+		 * submits task periodically, a tick is dropped when the mailbox is full
+		 */
+		public ScheduledFuture<?> scheduleAtFixedRate(final Task<?> task, long initialDelay, long period,
+				TimeUnit unit) {
+			ScheduledFuture<?> f = scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						submit(task);
+					} catch (RejectedExecutionException e) {
+						logger.debug("tick dropped: {}", e.getMessage());
+					}
+				}
+			}, initialDelay, period, unit);
+			timers.add(f);
+			return f;
+		}
+
+		/**
+		 * stops timers, closes client after queued tasks, the tenant stays hosted until the client is closed
+		 * 
+		 * @return the same future on every call
+		 */
+		public synchronized Future<Void> close() {
+			if (closing != null)
+				return closing;
+			closed = true;
+			for (ScheduledFuture<?> f : timers)
+				f.cancel(false);
+			closing = enqueue(new Task<Void>() {
+				@Override
+				public Void run(EClient client) throws Exception {
+					try {
+						client.close();
+					} finally {
+						tenants.remove(name, Tenant.this);
+					}
+					return null;
+				}
+			}, false);
+			return closing;
+		}
+
+		// get
+
+		public String getName() {
+			return name;
+		}
+
+		public EClient getClient() {
+			return client;
+		}
+
+		public Metrics getMetrics() {
+			return metrics;
+		}
+
+		public int getQueued() {
+			return queued.get();
+		}
+
+		public boolean isClosed() {
+			return closed;
+		}
+	}
+
+	File root;
+	ConnectionInfo connInfo;
+	int maxTenants = DEFAULT_MAX_TENANTS;
+	int maxQueued = DEFAULT_MAX_QUEUED;
+
+	final TransportPool transports;
+	final ExecutorService workers;
+	final ExecutorService crypto;
+	final ScheduledExecutorService scheduler;
+	final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<String, Tenant>();
+
+	public WalletHost(File root, ConnectionInfo connInfo) {
+		this(root, connInfo, DEFAULT_TRANSPORTS, Runtime.getRuntime().availableProcessors());
+	}
+
+	public WalletHost(File root, ConnectionInfo connInfo, int transports, int threads) {
+		this.root = root;
+		this.connInfo = connInfo;
+		this.transports = new TransportPool(connInfo.getEndpoint(), transports);
+		this.workers = Executors.newFixedThreadPool(threads, daemon("otj-host-worker"));
+		this.crypto = Executors.newFixedThreadPool(threads, daemon("otj-host-crypto"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("otj-host-scheduler"));
+	}
+
+	static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Admits nym stored in root/name (created when new), its client is initialized by the first task of the mailbox.
+	 * When the nym is still closing, waits until its client is closed so two clients never share the directory.
+	 * 
+	 * @param assetType
+	 *            asset of the default account, see {@link EClient#setAssetType(String)}
+	 * @throws RejectedExecutionException
+	 *             when there are maxTenants already or interrupted while waiting
+	 */
+	public Tenant open(String name, String assetType) {
+		Tenant t;
+		while (true) {
+			Future<Void> closing;
+			synchronized (tenants) {
+				t = tenants.get(name);
+				if (t == null) {
+					if (tenants.size() >= maxTenants)
+						throw new RejectedExecutionException("too many tenants: " + tenants.size());
+					EClient client = new EClient(new File(root, name), connInfo);
+					client.setAssetType(assetType);
+					client.setTransport(transports.share());
+					client.setExecutor(crypto);
+					t = new Tenant(name, client);
+					tenants.put(name, t);
+					break;
+				}
+				if (!t.closed)
+					return t;
+				closing = t.close();
+			}
+			try {
+				closing.get();
+			} catch (ExecutionException e) {
+				// tenant is gone anyway
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("interrupted waiting for close: " + name);
+			}
+			synchronized (tenants) {
+				tenants.remove(name, t);
+			}
+		}
+		t.submit(new Task<Void>() {
+			@Override
+			public Void run(EClient client) throws Exception {
+				client.init();
+				return null;
+			}
+		});
+		return t;
+	}
+
+	public Tenant get(String name) {
+		return tenants.get(name);
+	}
+
+	/**
+	 * closes the tenant, it is hosted until its client is closed
+	 * 
+	 * @return null if not hosted
+	 */
+	public Future<Void> remove(String name) {
+		Tenant t = tenants.get(name);
+		return t == null ? null : t.close();
+	}
+
+	public Collection<Tenant> getTenants() {
+		return tenants.values();
+	}
+
+	/**
+	 * @return sums of all tenants
+	 */
+	public Metrics getMetrics() {
+		Metrics m = new Metrics();
+		for (Tenant t : tenants.values())
+			m.add(t.metrics);
+		return m;
+	}
+
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+		List<Future<Void>> closing = new ArrayList<Future<Void>>();
+		for (String name : new ArrayList<String>(tenants.keySet())) {
+			Future<Void> f = remove(name);
+			if (f != null)
+				closing.add(f);
+		}
+		for (Future<Void> f : closing)
+			try {
+				f.get();
+			} catch (Exception e) {
+				logger.warn("closing tenant: {}", e.toString());
+			}
+		workers.shutdown();
+		crypto.shutdown();
+		transports.close();
+	}
+
+	// get/set
+
+	public void setMaxTenants(int maxTenants) {
+		this.maxTenants = maxTenants;
+	}
+
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	public int getMaxTenants() {
+		return maxTenants;
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+}
@@ -55,12 +55,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import com.kactech.otj.BufferedPublisher;
 import com.kactech.otj.Client;
+import com.kactech.otj.Flow;
 import com.kactech.otj.MSG;
 import com.kactech.otj.OT;
 import com.kactech.otj.OT.Transaction.Type;
 
-public class IncomingTransfrerFilter implements Client.Filter<Object> {
+/**
+ * Publishes incoming transfers once they're accepted from inbox.
+ */
+public class IncomingTransfrerFilter implements Client.AsyncHook<Object> {
 	public static class Tx {
 		public Long date;
 		public String account;
@@ -75,58 +80,65 @@ public class IncomingTransfrerFilter implements Client.Filter<Object> {
 
 	Map<Long, Tx> pending = new TreeMap<Long, IncomingTransfrerFilter.Tx>();
 
-	Map<Long, Tx> acknowleded = new TreeMap<Long, IncomingTransfrerFilter.Tx>();
+	BufferedPublisher<Tx> publisher = new BufferedPublisher<Tx>();
 
 	@Override
-	public Object filter(Object obj, Client client) {
+	public synchronized void onResponse(Object obj, Client client) {
 		if (obj instanceof MSG.GetInboxResp) {
 			MSG.GetInboxResp gir = (MSG.GetInboxResp) obj;
 			if (!gir.getSuccess() || gir.getInboxLedger().getNumPartialRecords() == 0)
-				return obj;
+				return;
 			//System.out.println(Engines.gson.toJson(obj));
+			List<OT.BoxRecord> recs = new ArrayList<OT.BoxRecord>();
 			for (OT.BoxRecord rec : gir.getInboxLedger().getInboxRecords())
-				if (rec.getType() == Type.pending) {
-					MSG.GetBoxReceiptResp boxResp = client.getBoxReceipt(gir.getAccountID(),
-							gir.getInboxLedger().getType(), rec.getTransactionNum());
-					OT.Item it = (OT.Item) boxResp.getBoxReceipt().getInReferenceToContent();
-					Tx tx = new Tx();
-					tx.amount = it.getAmount();
-					tx.account = it.getFromAccountID();
-					tx.date = boxResp.getBoxReceipt().getDateSigned();
-					pending.put(it.getTransactionNum(), tx);
-					//System.out.println(Engines.gson.toJson(boxResp));
-
-				}
+				if (rec.getType() == Type.pending)
+					recs.add(rec);
+			List<MSG.GetBoxReceiptResp> receipts = client.getBoxReceipts(gir.getAccountID(), gir
+					.getInboxLedger().getType(), recs, Client.DEFAULT_CONCURRENCY);
+			for (MSG.GetBoxReceiptResp boxResp : receipts) {
+				if (boxResp == null)
+					continue;
+				OT.Item it = (OT.Item) boxResp.getBoxReceipt().getInReferenceToContent();
+				Tx tx = new Tx();
+				tx.amount = it.getAmount();
+				tx.account = it.getFromAccountID();
+				tx.date = boxResp.getBoxReceipt().getDateSigned();
+				pending.put(it.getTransactionNum(), tx);
+				//System.out.println(Engines.gson.toJson(boxResp));
+			}
 		} else if (obj instanceof MSG.ProcessInboxResp) {
 			MSG.ProcessInboxResp pir = (MSG.ProcessInboxResp) obj;
 			if (!pir.getSuccess())
-				return obj;
+				return;
 			//System.out.println(Engines.gson.toJson(obj));
 			List<Long> acknowledged = new ArrayList<Long>();
 			for (OT.Item item : pir.getResponseLedger().getTransactions().get(0).getItems())
 				if (item.getType() == OT.Item.Type.atBalanceStatement
 						&& item.getStatus() != OT.Item.Status.acknowledgement)
-					return obj;
+					return;
 				else if (item.getType() == OT.Item.Type.atAcceptPending
 						&& item.getStatus() == OT.Item.Status.acknowledgement) {
 					acknowledged.add(item.getNumberOfOrigin());
 				}
 			for (Long l : acknowledged) {
-				Tx tx = pending.remove(l);
-				this.acknowleded.put(tx.date, tx);
+				Tx tx = pending.get(l);
+				if (tx == null)
+					continue;
+				try {
+					publisher.submit(tx);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				pending.remove(l);
 			}
 		}
-		return obj;
-	}
-
-	@Override
-	public int getMask() {
-		return Client.EVENT_STD;
 	}
 
-	public List<Tx> getAndClearAcknowledged() {
-		List<Tx> l = new ArrayList<Tx>(this.acknowleded.values());
-		this.acknowleded.clear();
-		return l;
+	/**
+	 * transfers published before anyone subscribed are kept for the first subscriber
+	 */
+	public Flow.Publisher<Tx> getPublisher() {
+		return publisher;
 	}
 }
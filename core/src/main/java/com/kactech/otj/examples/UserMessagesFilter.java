@@ -55,58 +55,78 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kactech.otj.BufferedPublisher;
 import com.kactech.otj.Client;
+import com.kactech.otj.Flow;
 import com.kactech.otj.MSG;
 import com.kactech.otj.MSG.GetBoxReceiptResp;
-import com.kactech.otj.MSG.GetNymboxResp;
 import com.kactech.otj.OT;
 import com.kactech.otj.Utils;
 
-public class UserMessagesFilter implements Client.Filter<MSG.GetNymboxResp> {
+/**
+ * Publishes decrypted user messages found in fetched nymbox, each once.
+ */
+public class UserMessagesFilter implements Client.AsyncHook<MSG.GetNymboxResp> {
+	static final Logger logger = LoggerFactory.getLogger(UserMessagesFilter.class);
+	public static int SEEN_SIZE = 1024;
 
 	public static class UserMessage {
 		public String from;
 		public String text;
 	}
 
-	Map<Long, UserMessage> messages = new LinkedHashMap<Long, UserMessage>();
-
-	@Override
-	public GetNymboxResp filter(GetNymboxResp obj, Client client) {
-		try {
-			for (OT.BoxRecord rec : obj.getNymboxLedger().getNymboxRecords())
-				if (rec.getType() == OT.Transaction.Type.message) {
-					GetBoxReceiptResp receipt = client.getBoxReceipt(obj.getNymID(), obj
-							.getNymboxLedger()
-							.getType(), rec.getTransactionNum());
-					OT.Transaction box = receipt.getBoxReceipt();
-					MSG.SendUserMessage send = ((MSG.Message) box.getInReferenceToContent())
-							.getSendUserMessage();
-
-					byte[] data = send.getMessagePayload().getData();
-					try {
-						UserMessage umsg = new UserMessage();
-						umsg.from = send.getNymID();
-						umsg.text = Utils.open(data, client.getUserAccount().getCpairs().get("E")
-								.getPrivate());
-						messages.put(rec.getTransactionNum(), umsg);
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-		} catch (Exception ex) {
+	// transaction nums of published messages, nymbox is fetched again before they're processed
+	@SuppressWarnings("serial")
+	Map<Long, Boolean> seen = new LinkedHashMap<Long, Boolean>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > SEEN_SIZE;
 		}
-		return obj;
-	}
+	};
+
+	BufferedPublisher<UserMessage> publisher = new BufferedPublisher<UserMessage>();
 
 	@Override
-	public int getMask() {
-		return Client.EVENT_STD;
+	public synchronized void onResponse(MSG.GetNymboxResp obj, Client client) {
+		if (obj.getNymboxLedger() == null || obj.getNymboxLedger().getNymboxRecords() == null)
+			return;
+		List<OT.BoxRecord> recs = new ArrayList<OT.BoxRecord>();
+		for (OT.BoxRecord rec : obj.getNymboxLedger().getNymboxRecords())
+			if (rec.getType() == OT.Transaction.Type.message && !seen.containsKey(rec.getTransactionNum()))
+				recs.add(rec);
+		if (recs.isEmpty())
+			return;
+		List<GetBoxReceiptResp> receipts = client.getBoxReceipts(obj.getNymID(), obj.getNymboxLedger().getType(),
+				recs, Client.DEFAULT_CONCURRENCY);
+		for (int i = 0; i < recs.size(); i++) {
+			if (receipts.get(i) == null)
+				continue;// no response, next fetch asks again
+			try {
+				OT.Transaction box = receipts.get(i).getBoxReceipt();
+				MSG.SendUserMessage send = ((MSG.Message) box.getInReferenceToContent()).getSendUserMessage();
+				byte[] data = send.getMessagePayload().getData();
+				UserMessage umsg = new UserMessage();
+				umsg.from = send.getNymID();
+				umsg.text = Utils.open(data, client.getUserAccount().getNymID(), client.getUserAccount()
+						.getCpairs().get("E").getPrivate());
+				publisher.submit(umsg);
+				seen.put(recs.get(i).getTransactionNum(), Boolean.TRUE);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				logger.warn("reading user message " + recs.get(i).getTransactionNum(), e);
+			}
+		}
 	}
 
-	public List<UserMessage> getAndClearMessages() {
-		List<UserMessage> msgs = new ArrayList<UserMessage>(messages.values());
-		messages.clear();
-		return msgs;
+	/**
+	 * messages published before anyone subscribed are kept for the first subscriber
+	 */
+	public Flow.Publisher<UserMessage> getPublisher() {
+		return publisher;
 	}
 }
@@ -53,11 +53,12 @@ package com.kactech.otj.model;
 import java.security.PublicKey;
 
 public class BasicConnectionInfo implements ConnectionInfo {
-	PublicKey publicKey;
-	String endpoint;
-	String id;
-	String nymID;
-	String name;
+	final PublicKey publicKey;
+	final PublicKey signingKey;
+	final String endpoint;
+	final String id;
+	final String nymID;
+	final String name;
 
 	public BasicConnectionInfo(String id, PublicKey publicKey, String endpoint) {
 		this(id, publicKey, endpoint, null);
@@ -68,8 +69,14 @@ public class BasicConnectionInfo implements ConnectionInfo {
 	}
 
 	public BasicConnectionInfo(String id, PublicKey publicKey, String endpoint, String nymID, String name) {
+		this(id, publicKey, endpoint, nymID, name, null);
+	}
+
+	public BasicConnectionInfo(String id, PublicKey publicKey, String endpoint, String nymID, String name,
+			PublicKey signingKey) {
 		super();
 		this.publicKey = publicKey;
+		this.signingKey = signingKey;
 		this.endpoint = endpoint;
 		this.id = id;
 		this.nymID = nymID;
@@ -81,6 +88,13 @@ public class BasicConnectionInfo implements ConnectionInfo {
 		return publicKey;
 	}
 
+	/**
+	 * key the notary signs its messages with, public (encryption) key when not known
+	 */
+	public PublicKey getSigningKey() {
+		return signingKey == null ? publicKey : signingKey;
+	}
+
 	@Override
 	public String getEndpoint() {
 		return endpoint;
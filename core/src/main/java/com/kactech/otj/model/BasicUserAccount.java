@@ -72,6 +72,17 @@ public class BasicUserAccount implements UserAccount, Serializable {
 	Map<String, String> sources = new LinkedHashMap<String, String>();
 	Map<String, String> csources = new LinkedHashMap<String, String>();
 
+	public BasicUserAccount() {
+	}
+
+	/**
+	 * for deserializers, keys and sources are put in the maps
+	 */
+	public BasicUserAccount(String nymID, String nymIDSource) {
+		this.nymID = nymID;
+		this.nymIDSource = nymIDSource;
+	}
+
 	public BasicUserAccount generate() {
 		KeyPairGenerator kpg;
 		try {
@@ -50,47 +50,153 @@
  ******************************************************************************/
 package com.kactech.otj.script;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.script.Bindings;
+import javax.script.Compilable;
 import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
 import com.kactech.otj.Client;
 
+/**
+ * Client filter defined by script. Script sets type, mask, priority and puts 'filtered' for 'toFilter' and 'client'.
+ * Calls are thread-safe: each runs on a pooled engine slot with its own reused bindings; engines not declaring
+ * threading support get one engine per slot.
+ */
 @SuppressWarnings("rawtypes")
 public class ScriptFilter implements Client.Filter {
+	public static int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+	static class Slot {
+		CompiledScript compiled;
+		Bindings bind;
+	}
+
 	CompiledScript compiled;
+	String engineName;
+	String source;
+	boolean shareEngine;
+	int poolSize;
+	BlockingQueue<Slot> pool = new LinkedBlockingQueue<Slot>();
+	AtomicInteger slots = new AtomicInteger();
 	Integer priority;
 	int mask;
 	Class type;
 
+	/**
+	 * single slot, unless engine is thread-safe
+	 */
 	public ScriptFilter(CompiledScript compiled) throws ScriptException, ClassNotFoundException {
+		this(compiled, null, null);
+	}
+
+	/**
+	 * compiles source on new engines as pool grows
+	 */
+	public ScriptFilter(String engineName, String source) throws ScriptException, ClassNotFoundException {
+		this(compile(engineName, source), engineName, source);
+	}
+
+	protected ScriptFilter(CompiledScript compiled, String engineName, String source) throws ScriptException,
+			ClassNotFoundException {
 		this.compiled = compiled;
-		Bindings bind = compiled.getEngine().createBindings();
-		compiled.eval(bind);
-		Double v = (Double) bind.get("priority");
+		this.engineName = engineName;
+		this.source = source;
+		this.shareEngine = compiled.getEngine().getFactory().getParameter("THREADING") != null;
+		this.poolSize = shareEngine || source != null ? Math.max(1, POOL_SIZE) : 1;
+		Slot slot = slot(compiled);
+		// Double on Rhino, Integer on Nashorn
+		Number v = (Number) slot.bind.get("priority");
 		if (v != null)
 			this.priority = v.intValue();
-		v = (Double) bind.get("mask");
+		v = (Number) slot.bind.get("mask");
 		this.mask = v == null ? Client.EVENT_STD : v.intValue();
-		String t = (String) bind.get("type");
+		String t = (String) slot.bind.get("type");
 		t = t.replace("com.kactech.otj.MSG.", "com.kactech.otj.MSG$");
 		this.type = Class.forName(t);
-		bind.clear();
+		slots.incrementAndGet();
+		pool.add(slot);
+	}
+
+	public static ScriptFilter load(String engineName, Reader source) throws IOException, ScriptException,
+			ClassNotFoundException {
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[4096];
+		int r;
+		try {
+			while ((r = source.read(buf)) > 0)
+				sb.append(buf, 0, r);
+		} finally {
+			source.close();
+		}
+		return new ScriptFilter(engineName, sb.toString());
+	}
+
+	static CompiledScript compile(String engineName, String source) throws ScriptException {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName(engineName);
+		if (engine == null)
+			throw new IllegalStateException("script engine not found: " + engineName);
+		return ((Compilable) engine).compile(source);
+	}
+
+	// first eval defines script's functions in slot's bindings
+	static Slot slot(CompiledScript compiled) throws ScriptException {
+		Slot slot = new Slot();
+		slot.compiled = compiled;
+		slot.bind = compiled.getEngine().createBindings();
+		compiled.eval(slot.bind);
+		return slot;
+	}
+
+	Slot take() throws ScriptException, InterruptedException {
+		Slot slot = pool.poll();
+		if (slot != null)
+			return slot;
+		if (slots.incrementAndGet() <= poolSize)
+			try {
+				return slot(shareEngine ? compiled : compile(engineName, source));
+			} catch (ScriptException e) {
+				slots.decrementAndGet();
+				throw e;
+			} catch (RuntimeException e) {
+				slots.decrementAndGet();
+				throw e;
+			}
+		slots.decrementAndGet();
+		return pool.take();
 	}
 
 	@Override
 	public Object filter(Object obj, Client client) {
-		Bindings bind = compiled.getEngine().createBindings();
-		bind.put("toFilter", obj);
-		bind.put("client", client);
+		Slot slot;
 		try {
-			compiled.eval(bind);
+			slot = take();
 		} catch (ScriptException e) {
 			throw new RuntimeException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		try {
+			slot.bind.put("toFilter", obj);
+			slot.bind.put("client", client);
+			slot.compiled.eval(slot.bind);
+			return slot.bind.get("filtered");
+		} catch (ScriptException e) {
+			throw new RuntimeException(e);
+		} finally {
+			slot.bind.remove("toFilter");
+			slot.bind.remove("client");
+			slot.bind.remove("filtered");
+			pool.add(slot);
 		}
-		obj = bind.get("filtered");
-		bind.clear();
-		return obj;
 	}
 
 	@Override
@@ -105,4 +211,8 @@ public class ScriptFilter implements Client.Filter {
 	public Class getType() {
 		return type;
 	}
-}
\ No newline at end of file
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.kactech.otj.Engines;
+import com.kactech.otj.SignatureVerifier;
+import com.kactech.otj.Utils;
+import com.kactech.otj.model.SigningSupport;
+
+/**
+ * Verifies signatures of stored signed messages and receipts (receipts dir of EClient, faucet history) and of
+ * everything signed inside them, inReferenceTo included. Files of a directory or zip archive are parsed and checked
+ * on all cores; queue of read files is bounded, failures are printed as found, summary at the end.
+ * 
+ * <pre>
+ * ReceiptAudit &lt;dir|zip&gt; &lt;public key file&gt;...
+ * </pre>
+ * 
+ * Key files hold PEM public key, OT raw public info or public info. Signature made by none of the keys counts as
+ * failed.
+ */
+public class ReceiptAudit {
+	public static int QUEUE_SIZE = 256;
+
+	final List<SignatureVerifier> verifiers = new ArrayList<SignatureVerifier>();
+	final PrintWriter out;
+	final ThreadPoolExecutor executor;
+	final AtomicLong files = new AtomicLong(), signatures = new AtomicLong(), verified = new AtomicLong(),
+			failed = new AtomicLong(), unreadable = new AtomicLong();
+
+	public ReceiptAudit(Collection<PublicKey> keys, PrintWriter out, int threads) {
+		for (PublicKey key : keys)
+			verifiers.add(new SignatureVerifier(key));
+		this.out = out;
+		// producer runs the task itself when queue is full, so no more than QUEUE_SIZE files wait in memory
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * audits all files under dir, or entries of zip file
+	 */
+	public void audit(File file) throws IOException {
+		if (file.isDirectory()) {
+			File[] list = file.listFiles();
+			if (list != null)
+				for (File f : list)
+					audit(f);
+		} else if (file.getName().endsWith(".zip") || file.getName().endsWith(".jar")) {
+			ZipInputStream zin = new ZipInputStream(new FileInputStream(file));
+			try {
+				ZipEntry e;
+				while ((e = zin.getNextEntry()) != null)
+					if (!e.isDirectory())
+						submit(file.getPath() + '!' + e.getName(), readAll(zin));
+			} finally {
+				zin.close();
+			}
+		} else
+			submit(file.getPath(), file);
+	}
+
+	void submit(final String name, final Object content) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String str = content instanceof File ? Utils.read((File) content) : new String(
+							(byte[]) content, Utils.UTF8);
+					audit(name, str);
+				} catch (Exception e) {
+					unreadable.incrementAndGet();
+					print("UNREADABLE " + name + ": " + e);
+				}
+			}
+		});
+	}
+
+	/*
+	 * stored text may have a header line (receipt hash), signed part starts at BEGIN SIGNED
+	 */
+	void audit(String name, String str) {
+		int idx = str.indexOf("-----BEGIN SIGNED");
+		if (idx < 0) {
+			unreadable.incrementAndGet();
+			print("NOT SIGNED " + name);
+			return;
+		}
+		SigningSupport root = Engines.parse(str.substring(idx));
+		files.incrementAndGet();
+		List<SigningSupport> signed = new ArrayList<SigningSupport>();
+		collect(root, signed, new IdentityHashMap<Object, Boolean>());
+		for (SigningSupport s : signed) {
+			signatures.incrementAndGet();
+			if (verify(s))
+				verified.incrementAndGet();
+			else {
+				failed.incrementAndGet();
+				print("FAILED " + name + ": " + s.getClass().getSimpleName());
+			}
+		}
+	}
+
+	boolean verify(SigningSupport s) {
+		for (SignatureVerifier v : verifiers)
+			if (v.verify(s))
+				return true;
+		return false;
+	}
+
+	// fields which may hold signed entities, by class
+	static final Map<Class<?>, List<Field>> fields = new HashMap<Class<?>, List<Field>>();
+
+	static List<Field> fields(Class<?> type) {
+		synchronized (fields) {
+			List<Field> list = fields.get(type);
+			if (list == null) {
+				list = new ArrayList<Field>();
+				for (Class<?> c = type; c != null && c.getName().startsWith("com.kactech.otj"); c = c.getSuperclass())
+					for (Field f : c.getDeclaredFields())
+						if (!Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers())
+								&& !f.getType().isPrimitive() && f.getType() != String.class
+								&& !Number.class.isAssignableFrom(f.getType())) {
+							f.setAccessible(true);
+							list.add(f);
+						}
+				fields.put(type, list);
+			}
+			return list;
+		}
+	}
+
+	/*
+	 * signed entities reachable from o: its own fields, lists and maps of them
+	 */
+	static void collect(Object o, List<SigningSupport> out, Map<Object, Boolean> seen) {
+		if (o == null || seen.put(o, Boolean.TRUE) != null)
+			return;
+		if (o instanceof Collection) {
+			for (Object e : (Collection<?>) o)
+				collect(e, out, seen);
+			return;
+		}
+		if (o instanceof Map) {
+			for (Object e : ((Map<?, ?>) o).values())
+				collect(e, out, seen);
+			return;
+		}
+		if (!o.getClass().getName().startsWith("com.kactech.otj"))
+			return;
+		if (o instanceof SigningSupport && ((SigningSupport) o).getSigned() != null)
+			out.add((SigningSupport) o);
+		try {
+			for (Field f : fields(o.getClass()))
+				collect(f.get(o), out, seen);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	void print(String line) {
+		synchronized (out) {
+			out.println(line);
+			out.flush();
+		}
+	}
+
+	/**
+	 * waits for queued files and prints the summary
+	 */
+	public void finish(long started) throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		print("files: " + files + ", unreadable: " + unreadable + ", signatures: " + signatures + ", verified: "
+				+ verified + ", failed: " + failed + ", time: " + (System.currentTimeMillis() - started) + "ms");
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			bout.write(buf, 0, n);
+		return bout.toByteArray();
+	}
+
+	static PublicKey readKey(File f) throws Exception {
+		String str = Utils.read(f).trim();
+		try {
+			PublicKey key = Utils.pemReadRSAPublicKey(str);
+			if (key != null)
+				return key;
+		} catch (Exception e) {// not plain PEM
+		}
+		if (str.startsWith("-----BEGIN") || str.startsWith("- -----BEGIN"))
+			return Utils.fromRawPublicInfo(str, str.startsWith("- "));
+		return Utils.fromPublicInfo(str);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: ReceiptAudit <dir|zip> <public key file>...");
+			System.exit(1);
+		}
+		Utils.init();
+		long started = System.currentTimeMillis();
+		List<PublicKey> keys = new ArrayList<PublicKey>();
+		for (int i = 1; i < args.length; i++)
+			keys.add(readKey(new File(args[i])));
+		ReceiptAudit audit = new ReceiptAudit(keys, new PrintWriter(System.out), Runtime.getRuntime()
+				.availableProcessors());
+		audit.audit(new File(args[0]));
+		audit.finish(started);
+		System.exit(audit.failed.get() == 0 && audit.unreadable.get() == 0 ? 0 : 2);
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AckRepliesTests {
+	static Client client() {
+		return new Client(null, "server", null, null, "serverNym");
+	}
+
+	static MSG.Message reply(long requestNum, Long... dropped) {
+		MSG.GetInboxResp resp = new MSG.GetInboxResp();
+		resp.setRequestNum(requestNum);
+		MSG.Message msg = new MSG.Message().set(resp);
+		if (dropped.length > 0)
+			msg.setAckReplies(new OT.NumList("server", Arrays.asList(dropped)));
+		return msg;
+	}
+
+	static OT.BoxRecord notice(long requestNum) {
+		OT.BoxRecord rec = new OT.BoxRecord();
+		rec.setType(OT.Transaction.Type.replyNotice);
+		rec.setRequestNumber(requestNum);
+		return rec;
+	}
+
+	@Test
+	public void received() {
+		int max = Client.MAX_ACK_REPLIES;
+		Client.MAX_ACK_REPLIES = 3;
+		try {
+			Client c = client();
+			for (long i = 1; i <= 4; i++)
+				c.received(reply(i));
+			assertFalse("oldest over the bound is forgotten", c.isReplyAcknowledged(1));
+			assertTrue(c.isReplyAcknowledged(2));
+			assertTrue(c.isReplyAcknowledged(4));
+			// server dropped the notices acknowledged with the request
+			c.received(reply(5, 2l, 3l));
+			assertFalse(c.isReplyAcknowledged(2));
+			assertFalse(c.isReplyAcknowledged(3));
+			assertEquals(2, c.ackReplies.size());
+		} finally {
+			Client.MAX_ACK_REPLIES = max;
+		}
+	}
+
+	@Test
+	public void prune() {
+		Client c = client();
+		for (long i = 1; i <= 12; i++)
+			c.received(reply(i));
+		OT.Ledger ledger = new OT.Ledger();
+		ledger.setNymboxRecords(Arrays.asList(notice(4)));
+		MSG.GetNymboxResp nymbox = new MSG.GetNymboxResp();
+		nymbox.setRequestNum(10l);
+		nymbox.setNymboxLedger(ledger);
+		c.pruneAckReplies(nymbox);
+		// older than the nymbox without notice are done with, the one with notice and newer ones stay
+		assertFalse(c.isReplyAcknowledged(3));
+		assertFalse(c.isReplyAcknowledged(9));
+		assertTrue(c.isReplyAcknowledged(4));
+		assertTrue(c.isReplyAcknowledged(10));
+		assertTrue(c.isReplyAcknowledged(12));
+	}
+}
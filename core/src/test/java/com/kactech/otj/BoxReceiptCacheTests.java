@@ -0,0 +1,151 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+
+import org.junit.Test;
+
+public class BoxReceiptCacheTests {
+	static MSG.Message receipt(PrivateKey key, long transactionNum) {
+		OT.Transaction tx = new OT.Transaction();
+		tx.setType(OT.Transaction.Type.pending);
+		tx.setTransactionNum(transactionNum);
+		tx.setAccountID("acc");
+		Engines.render(tx, key);
+		MSG.GetBoxReceiptResp resp = new MSG.GetBoxReceiptResp();
+		resp.setSuccess(true);
+		resp.setAccountID("acc");
+		resp.setTransactionNum(transactionNum);
+		resp.setBoxType(OT.Ledger.Type.inbox);
+		resp.setBoxReceipt(tx);
+		MSG.Message msg = new MSG.Message().set(resp);
+		Engines.render(msg, key);
+		return msg;
+	}
+
+	static PrivateKey key() throws Exception {
+		Utils.init();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+		gen.initialize(1024);
+		return gen.generateKeyPair().getPrivate();
+	}
+
+	@Test
+	public void hash() throws Exception {
+		MSG.Message msg = receipt(key(), 5);
+		String hash = BoxReceiptCache.receiptHash(msg.getGetBoxReceiptResp().getBoxReceipt());
+		BoxReceiptCache cache = new BoxReceiptCache();
+
+		cache.put("acc", OT.Ledger.Type.inbox, 5, "other", msg);
+		assertNull("receipt not matching its record is not cached", cache.get("acc", OT.Ledger.Type.inbox, 5, null));
+
+		cache.put("acc", OT.Ledger.Type.inbox, 5, hash, msg);
+		MSG.GetBoxReceiptResp a = cache.get("acc", OT.Ledger.Type.inbox, 5, hash);
+		MSG.GetBoxReceiptResp b = cache.get("acc", OT.Ledger.Type.inbox, 5, null);
+		assertNotNull(a);
+		assertNotSame(a, b);
+		assertNotSame(a.getBoxReceipt(), b.getBoxReceipt());
+		assertEquals(hash, BoxReceiptCache.receiptHash(a.getBoxReceipt()));
+		assertEquals(Long.valueOf(5), a.getBoxReceipt().getTransactionNum());
+
+		assertNull(cache.get("acc", OT.Ledger.Type.inbox, 5, "other"));
+		assertNull("mismatching receipt is dropped", cache.get("acc", OT.Ledger.Type.inbox, 5, null));
+	}
+
+	@Test
+	public void disk() throws Exception {
+		MSG.Message msg = receipt(key(), 7);
+		String hash = BoxReceiptCache.receiptHash(msg.getGetBoxReceiptResp().getBoxReceipt());
+		File dir = new File(System.getProperty("java.io.tmpdir"), "receipts" + System.nanoTime());
+		new BoxReceiptCache(dir, 2).put("acc", OT.Ledger.Type.inbox, 7, null, msg);
+		BoxReceiptCache cache = new BoxReceiptCache(dir, 2);
+		assertNull(cache.get("acc", OT.Ledger.Type.inbox, 7, "other"));
+		new BoxReceiptCache(dir, 2).put("acc", OT.Ledger.Type.inbox, 7, null, msg);
+		cache = new BoxReceiptCache(dir, 2);
+		assertNotNull(cache.get("acc", OT.Ledger.Type.inbox, 7, hash));
+		cache.remove("acc", OT.Ledger.Type.inbox, 7);
+		assertNull(new BoxReceiptCache(dir, 2).get("acc", OT.Ledger.Type.inbox, 7, null));
+	}
+
+	/*
+	 * Server puts in box record the same digest it uses for contract IDs (trimmed signed text), checked against ID
+	 * the notary computed for its own contract.
+	 */
+	@Test
+	public void notaryHash() throws Exception {
+		Utils.init();
+		Reader r = new InputStreamReader(getClass().getResourceAsStream("SERVER-ot.8coin.org.otc"), Utils.UTF8);
+		StringBuilder b = new StringBuilder();
+		char[] buff = new char[4096];
+		for (int n; (n = r.read(buff)) > 0;)
+			b.append(buff, 0, n);
+		r.close();
+		assertEquals("8bPtJo8pmJ5eG992ccbfrl06DsDi6aqxr7fNhAK2PuW", BoxReceiptCache.receiptHash(b.toString()));
+	}
+
+	@Test
+	public void mismatchCounted() throws Exception {
+		MSG.Message msg = receipt(key(), 9);
+		BoxReceiptCache cache = new BoxReceiptCache();
+		cache.put("acc", OT.Ledger.Type.inbox, 9, "other", msg);
+		assertEquals(1, cache.getHashMismatches());
+	}
+}
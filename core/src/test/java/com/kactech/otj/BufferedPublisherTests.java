@@ -0,0 +1,181 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BufferedPublisherTests {
+	static class Recorder implements Flow.Subscriber<Integer> {
+		List<Integer> items = new ArrayList<Integer>();
+		Flow.Subscription subscription;
+		CountDownLatch subscribed = new CountDownLatch(1), completed = new CountDownLatch(1);
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscribed.countDown();
+		}
+
+		@Override
+		public synchronized void onNext(Integer item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+		}
+
+		@Override
+		public void onComplete() {
+			completed.countDown();
+		}
+
+		synchronized int size() {
+			return items.size();
+		}
+	}
+
+	@Test
+	public void demand() throws Exception {
+		final BufferedPublisher<Integer> pub = new BufferedPublisher<Integer>(null, 4);
+		Recorder r = new Recorder();
+		pub.subscribe(r);
+		assertTrue(r.subscribed.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 4; i++)
+			pub.submit(i);
+		// nothing requested, buffer is full and producer waits
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					pub.submit(4);
+					pub.submit(5);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		producer.start();
+		producer.join(50);
+		assertTrue(producer.isAlive());
+		assertEquals(0, r.size());
+		r.subscription.request(3);
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		pub.close();
+		Thread.sleep(50);
+		assertEquals(3, r.size());
+		assertEquals(1, r.completed.getCount());
+		r.subscription.request(10);
+		assertTrue(r.completed.await(1, TimeUnit.SECONDS));
+		assertEquals("[0, 1, 2, 3, 4, 5]", r.items.toString());
+	}
+
+	@Test
+	public void backlog() throws Exception {
+		BufferedPublisher<Integer> pub = new BufferedPublisher<Integer>(null, 4);
+		pub.submit(0);
+		pub.submit(1);
+		assertEquals(2, pub.getBacklogSize());
+		Recorder r = new Recorder();
+		pub.subscribe(r);
+		assertTrue(r.subscribed.await(1, TimeUnit.SECONDS));
+		assertEquals(0, pub.getBacklogSize());
+		pub.submit(2);
+		r.subscription.request(10);
+		pub.close();
+		assertTrue(r.completed.await(1, TimeUnit.SECONDS));
+		assertEquals("[0, 1, 2]", r.items.toString());
+	}
+
+	@Test
+	public void fullBacklog() throws Exception {
+		BufferedPublisher<Integer> pub = new BufferedPublisher<Integer>(null, 4);
+		// nobody subscribed, submit never waits
+		for (int i = 0; i < 10; i++)
+			pub.submit(i);
+		assertEquals(4, pub.getBacklogSize());
+		assertEquals(6, pub.getDropped());
+		Recorder r = new Recorder();
+		pub.subscribe(r);
+		assertTrue(r.subscribed.await(1, TimeUnit.SECONDS));
+		r.subscription.request(10);
+		pub.close();
+		assertTrue(r.completed.await(1, TimeUnit.SECONDS));
+		assertEquals("[6, 7, 8, 9]", r.items.toString());
+	}
+
+	@Test
+	public void slowSubscriber() throws Exception {
+		BufferedPublisher<Integer> pub = new BufferedPublisher<Integer>(null, 2);
+		pub.setOfferTimeout(50);
+		Recorder r = new Recorder();
+		pub.subscribe(r);
+		assertTrue(r.subscribed.await(1, TimeUnit.SECONDS));
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 4; i++)
+			pub.submit(i);
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(2, pub.getDropped());
+		r.subscription.request(10);
+		pub.close();
+		assertTrue(r.completed.await(1, TimeUnit.SECONDS));
+		assertEquals("[0, 1]", r.items.toString());
+	}
+}
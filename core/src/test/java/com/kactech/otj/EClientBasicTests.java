@@ -71,12 +71,17 @@ public class EClientBasicTests {
 		client.init();
 
 		IncomingTransfrerFilter itf = new IncomingTransfrerFilter();
-		client.getClient().addFilter((Client.Filter) itf, MSG.ProcessInboxResp.class, 0);
-		client.getClient().addFilter((Client.Filter) itf, MSG.GetInboxResp.class, 0);
+		itf.getPublisher().subscribe(new BufferedPublisher.Consumer<IncomingTransfrerFilter.Tx>() {
+			@Override
+			public void accept(IncomingTransfrerFilter.Tx tx) {
+				System.out.println(tx);
+			}
+		});
+		client.getClient().addHook(itf, MSG.ProcessInboxResp.class);
+		client.getClient().addHook(itf, MSG.GetInboxResp.class);
 
 		client.processInbox();
-
-		System.out.println(itf.getAndClearAcknowledged());
+		client.getClient().awaitHooks(EClient.HOOKS_TIMEOUT);
 
 		client.saveState();
 		client.close();
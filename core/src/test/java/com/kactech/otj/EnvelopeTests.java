@@ -0,0 +1,154 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class EnvelopeTests {
+	@Test
+	public void multiRecipient() throws Exception {
+		Utils.init();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+		gen.initialize(1024);
+		KeyPair[] pairs = new KeyPair[3];
+		Map<String, PublicKey> recipients = new LinkedHashMap<String, PublicKey>();
+		for (int i = 0; i < pairs.length; i++) {
+			pairs[i] = gen.generateKeyPair();
+			recipients.put("nym" + i, pairs[i].getPublic());
+		}
+		String text = "hello všetkým";
+		ByteBuffer buff = Utils.seal(text, recipients);
+		byte[] env = new byte[buff.remaining()];
+		buff.get(env);
+		for (int i = 0; i < pairs.length; i++) {
+			assertEquals(text, Utils.open(env, "nym" + i, pairs[i].getPrivate()));
+			assertEquals(text, Utils.open(env, pairs[i].getPrivate()));
+		}
+	}
+
+	@Test
+	public void layout() throws Exception {
+		Utils.init();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+		gen.initialize(1024);
+		Map<String, PublicKey> recipients = new LinkedHashMap<String, PublicKey>();
+		recipients.put("nym0", gen.generateKeyPair().getPublic());
+		recipients.put("nym1", gen.generateKeyPair().getPublic());
+		byte[] iv = new byte[16];
+		iv[0] = 7;
+		ByteBuffer buff = Utils.seal("x", recipients, new SecretKeySpec(new byte[16], "AES"), new IvParameterSpec(iv));
+		assertEquals(1, buff.getShort());
+		assertEquals(2, buff.getInt());
+		for (int i = 0; i < 4; i++) {
+			int len = buff.getInt();// nymID, wrapped key
+			buff.position(buff.position() + len);
+		}
+		// single IV after the key array, as OT writes it
+		assertEquals(16, buff.getInt());
+		assertEquals(7, buff.get());
+		buff.position(buff.position() + 15);
+		assertEquals(16, buff.remaining());
+	}
+
+	@Test
+	public void streaming() throws Exception {
+		Utils.init();
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("RSA");
+		gen.initialize(1024);
+		KeyPair pair = gen.generateKeyPair();
+		Map<String, PublicKey> recipients = Collections.singletonMap("nym", pair.getPublic());
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 50000; i++)
+			sb.append("line ").append(i).append(" \u017elt\u00fd k\u00f4\u0148 \ud83d\ude00\n");
+		String text = sb.toString();
+		assertEquals(Utils.bytes(text, Utils.UTF8).length, Utils.utf8Length(text));
+
+		SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+		IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+		ByteBuffer plain = Utils.seal(text, recipients, key, iv);
+		ByteBuffer packed = Utils.seal(text, recipients, key, iv, true, false);
+		assertEquals(packed.capacity(), packed.remaining());
+		byte[] packedBytes = new byte[packed.remaining()];
+		packed.get(packedBytes);
+		// RSA wrap is randomized, compare everything else
+		byte[] expected = Utils.pack(plain.duplicate());
+		assertEquals(expected.length, packedBytes.length);
+		byte[] tail = new byte[1024];
+		byte[] expectedTail = new byte[1024];
+		System.arraycopy(packedBytes, packedBytes.length - tail.length, tail, 0, tail.length);
+		System.arraycopy(expected, expected.length - tail.length, expectedTail, 0, tail.length);
+		assertArrayEquals(expectedTail, tail);
+		ByteBuffer view = Utils.unpackBlob(packedBytes);
+		assertEquals(text, Utils.open(view, "nym", pair.getPrivate()));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		int written = Utils.seal(text, recipients, Channels.newChannel(bos));
+		assertEquals(bos.size(), written);
+		assertEquals(text, Utils.open(bos.toByteArray(), "nym", pair.getPrivate()));
+	}
+}
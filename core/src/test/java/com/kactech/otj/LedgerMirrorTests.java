@@ -0,0 +1,133 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class LedgerMirrorTests {
+	static OT.Account account(long balance, String inboxHash) {
+		OT.Account acc = new OT.Account();
+		acc.setAccountID("acc");
+		OT.Balance b = new OT.Balance();
+		b.setAmount(balance);
+		b.setDate(1l);
+		acc.setBalance(b);
+		OT.Hash h = new OT.Hash();
+		h.setValue(inboxHash);
+		acc.setInboxHash(h);
+		return acc;
+	}
+
+	static OT.BoxRecord record(long transactionNum) {
+		OT.BoxRecord rec = new OT.BoxRecord();
+		rec.setTransactionNum(transactionNum);
+		return rec;
+	}
+
+	@Test
+	public void projection() {
+		LedgerMirror m = new LedgerMirror();
+		m.account(account(100, "h"));
+		m.pending("acc", 5, -10);
+		m.pending("acc", 6, -20);
+		assertEquals(Long.valueOf(100), m.getBalance("acc"));
+		assertEquals(Long.valueOf(70), m.getProjectedBalance("acc"));
+		m.transferred("acc", 5);
+		assertEquals(Long.valueOf(90), m.getBalance("acc"));
+		assertEquals(Long.valueOf(70), m.getProjectedBalance("acc"));
+		m.rejected("acc", 6);
+		assertEquals(Long.valueOf(90), m.getBalance("acc"));
+		assertEquals(Long.valueOf(90), m.getProjectedBalance("acc"));
+		m.pending("acc", 7, -5);
+		m.reset("acc");
+		assertNull(m.getBalance("acc"));
+		assertNull(m.getProjectedBalance("acc"));
+	}
+
+	@Test
+	public void accountWhilePending() {
+		LedgerMirror m = new LedgerMirror();
+		m.account(account(100, "h"));
+		m.pending("acc", 5, -10);
+		// fetched meanwhile, may or may not contain the transfer
+		m.account(account(90, "h"));
+		assertEquals(Long.valueOf(100), m.getBalance("acc"));
+		m.inboxProcessed("acc", Collections.<OT.BoxRecord> emptyList(), 95);
+		assertEquals(Long.valueOf(100), m.getBalance("acc"));
+		m.transferred("acc", 5);
+		assertEquals(Long.valueOf(90), m.getBalance("acc"));
+		m.account(account(110, "h"));
+		assertEquals(Long.valueOf(110), m.getBalance("acc"));
+	}
+
+	@Test
+	public void inbox() {
+		LedgerMirror m = new LedgerMirror();
+		m.account(account(100, "h"));
+		OT.Ledger inbox = new OT.Ledger();
+		inbox.setInboxRecords(Arrays.asList(record(1), record(2)));
+		m.inbox("acc", inbox, "h");
+		assertTrue(m.get("acc").isInboxCurrent());
+		m.inboxProcessed("acc", Arrays.asList(record(1)), 120);
+		assertEquals(1, m.getInbox("acc").size());
+		assertEquals(Long.valueOf(2), m.getInbox("acc").get(0).getTransactionNum());
+		assertEquals(Long.valueOf(120), m.getBalance("acc"));
+		assertFalse(m.get("acc").isInboxCurrent());
+	}
+}
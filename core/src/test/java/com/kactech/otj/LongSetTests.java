@@ -0,0 +1,140 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LongSetTests {
+	@Test
+	public void ranges() {
+		LongSet set = LongSet.of(5, 1, 2, 3, 7);
+		assertEquals(3, set.rangeCount());
+		set.add(4);
+		set.add(6);
+		assertEquals(1, set.rangeCount());
+		assertEquals(7, set.size());
+		set.remove(4);
+		assertEquals(2, set.rangeCount());
+		assertFalse(set.contains(4l));
+		assertEquals(Long.valueOf(1), set.peek());
+		assertEquals(7, set.last());
+		int v = set.getVersion();
+		assertFalse(set.add(5));
+		assertEquals(v, set.getVersion());
+	}
+
+	@Test
+	public void text() {
+		LongSet set = LongSet.parse(" 3,4,5,,9, -2", new LongSet());
+		assertEquals(5, set.size());
+		assertEquals("-2,3,4,5,9", set.appendTo(new StringBuilder(), ',').toString());
+	}
+
+	@Test
+	public void algebra() {
+		LongSet a = new LongSet();
+		a.addRange(1, 100);
+		LongSet b = new LongSet();
+		b.addRange(50, 150);
+		assertEquals(150, LongSet.union(a, b).count());
+		assertEquals(49, LongSet.difference(a, b).count());
+		assertEquals(51, LongSet.intersection(a, b).count());
+		assertTrue(a.containsAll(LongSet.intersection(a, b)));
+		assertFalse(a.containsAll(b));
+	}
+
+	@Test
+	public void randomAgainstTreeSet() {
+		Random r = new Random(42);
+		LongSet set = new LongSet();
+		TreeSet<Long> ref = new TreeSet<Long>();
+		for (int i = 0; i < 20000; i++) {
+			long from = r.nextInt(500);
+			long to = from + r.nextInt(5);
+			if (r.nextBoolean()) {
+				set.addRange(from, to);
+				for (long l = from; l <= to; l++)
+					ref.add(l);
+			} else {
+				set.removeRange(from, to);
+				for (long l = from; l <= to; l++)
+					ref.remove(l);
+			}
+			if (i % 97 == 0) {
+				Iterator<Long> it = set.iterator();
+				while (it.hasNext())
+					if (it.next() % 3 == 0)
+						it.remove();
+				Iterator<Long> rit = ref.iterator();
+				while (rit.hasNext())
+					if (rit.next() % 3 == 0)
+						rit.remove();
+			}
+			assertEquals(ref.size(), set.size());
+		}
+		assertEquals(new ArrayList<Long>(ref), new ArrayList<Long>(set));
+		LongSet other = new LongSet();
+		other.addRange(100, 300);
+		TreeSet<Long> refOther = new TreeSet<Long>(other);
+		set.retainAll(other);
+		ref.retainAll(refOther);
+		assertEquals(new ArrayList<Long>(ref), new ArrayList<Long>(set));
+	}
+}
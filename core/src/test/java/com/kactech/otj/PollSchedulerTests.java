@@ -0,0 +1,136 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PollSchedulerTests {
+	static final long MIN = 60 * 1000l, MAX = 8 * MIN;
+
+	PollScheduler poll = new PollScheduler(Executors.newSingleThreadScheduledExecutor());
+	EClient client = new EClient(new File(System.getProperty("java.io.tmpdir"), "poll"), null);
+	boolean changed;
+
+	@After
+	public void close() throws Exception {
+		poll.close();
+		poll.executor.shutdownNow();
+	}
+
+	// probes answer changed, runs are called here, scheduled ones are far enough
+	PollScheduler.Watch watch() {
+		poll.setMinInterval(MIN);
+		poll.setMaxInterval(MAX);
+		PollScheduler.Watch w = poll.new Watch(client, null) {
+			@Override
+			boolean probe() {
+				return changed;
+			}
+		};
+		poll.add(w);
+		return w;
+	}
+
+	@Test
+	public void backoff() {
+		PollScheduler.Watch w = watch();
+		assertEquals(MIN, w.interval);
+		w.run();
+		assertEquals(2 * MIN, w.interval);
+		w.run();
+		w.run();
+		assertEquals(MAX, w.interval);
+		w.run();
+		assertEquals("capped at max", MAX, w.interval);
+		long delay = w.future.getDelay(TimeUnit.MILLISECONDS);
+		assertTrue(delay > MAX * (1 - PollScheduler.JITTER) - 1000 && delay <= MAX * (1 + PollScheduler.JITTER));
+	}
+
+	@Test
+	public void resetOnChange() {
+		PollScheduler.Watch w = watch();
+		w.run();
+		w.run();
+		assertEquals(4 * MIN, w.interval);
+		changed = true;
+		w.run();
+		assertEquals(MIN, w.interval);
+	}
+
+	@Test
+	public void activity() {
+		PollScheduler.Watch w = watch();
+		w.run();
+		w.run();
+		w.run();
+		assertEquals(MAX, w.interval);
+		poll.activity(client);
+		assertEquals(MIN, w.interval);
+		assertTrue(w.future.getDelay(TimeUnit.MILLISECONDS) <= MIN * (1 + PollScheduler.JITTER));
+		// during a probe it's taken after the probe
+		w.run();
+		w.run();
+		w.running.set(true);
+		w.activity();
+		assertTrue(w.hurry);
+		w.running.set(false);
+		w.run();
+		assertEquals(MIN, w.interval);
+	}
+}
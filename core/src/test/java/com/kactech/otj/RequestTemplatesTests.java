@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class RequestTemplatesTests {
+	static final String NYM = "Bwbq2hz8nfnxgzsHtTgfsD3wo0NyiBdVwKO9U9aB9aE";
+	static final String SERVER = "r1fUoHwJOWCuK3WBAAySjmKYqsG6G2TYIxdqY6YNuuG";
+	static final String ACCOUNT = "X9aj5EWmWTXvFyzeXmFJDUBXR5EnwNRm6M5Xrj5Ngkq";
+
+	static MSG.Message message(MSG.Request req, long num) {
+		req.setRequestNum(num);
+		req.setNymID(NYM);
+		req.setServerID(SERVER);
+		return new MSG.Message().set(req);
+	}
+
+	static void check(MSG.Message msg) {
+		assertEquals(Engines.xstream.toXML(msg), RequestTemplates.toXML(msg));
+		msg.setAckReplies(new OT.NumList(SERVER, LongSet.of(3, 4, 5, 9, 120)));
+		assertEquals(Engines.xstream.toXML(msg), RequestTemplates.toXML(msg));
+	}
+
+	@Test
+	public void sameAsXStream() {
+		check(message(new MSG.GetRequest(), 1));
+		check(message(new MSG.GetNymbox(), 12));
+		MSG.GetInbox inbox = new MSG.GetInbox();
+		inbox.setAccountID(ACCOUNT);
+		check(message(inbox, 123));
+		MSG.GetOutbox outbox = new MSG.GetOutbox();
+		outbox.setAccountID(ACCOUNT);
+		check(message(outbox, 1234));
+		MSG.GetAccount account = new MSG.GetAccount();
+		account.setAccountID(ACCOUNT);
+		check(message(account, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void fallback() {
+		MSG.GetAccount account = new MSG.GetAccount();
+		MSG.Message msg = message(account, 7);
+		assertNull(RequestTemplates.toXML(msg));// accountID missing
+		account.setAccountID("a&b");
+		assertNull(RequestTemplates.toXML(msg));
+		account.setAccountID(ACCOUNT);
+		msg.setName("other");
+		assertNull(RequestTemplates.toXML(msg));
+		assertNull(RequestTemplates.toXML(message(new MSG.GetTransactionNum(), 7)));
+	}
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class ReservedNumsTests {
+	static EClient client(long... nums) {
+		EClient c = new EClient(new File(System.getProperty("java.io.tmpdir"), "reserved"), null);
+		c.state = new EClient.State();
+		c.state.transactionNums = LongSet.of(nums);
+		c.state.issuedNums = LongSet.of(nums);
+		return c;
+	}
+
+	@Test
+	public void preparedSurviveInbox() {
+		EClient c = client(10, 11, 12, 13);
+		Long first = c.reserveTransactionNum();
+		Long second = c.reserveTransactionNum();
+		assertEquals(Long.valueOf(10), first);
+		assertEquals(Long.valueOf(11), second);
+		// processInbox takes a free number and the server consumes it
+		Long inboxNum = c.freeTransactionNum();
+		assertEquals(Long.valueOf(12), inboxNum);
+		c.state.transactionNums.remove(inboxNum.longValue());
+		c.state.issuedNums.remove(inboxNum.longValue());
+		assertTrue(c.state.transactionNums.contains(first.longValue()));
+		assertTrue(c.state.transactionNums.contains(second.longValue()));
+		assertEquals(Long.valueOf(13), c.reserveTransactionNum());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void allReserved() {
+		EClient c = client(10);
+		c.reserveTransactionNum();
+		c.freeTransactionNum();
+	}
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SingleFlightTests {
+	static final int WAITERS = 4;
+
+	// leader blocks until released; result or exception of every caller goes to results
+	static List<Object> runAll(final SingleFlight<String, Object> flight, final Callable<Object> fn)
+			throws Exception {
+		final List<Object> results = new ArrayList<Object>();
+		final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i <= WAITERS; i++) {
+			final boolean leader = i == 0;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					Object r;
+					try {
+						r = flight.run("key", new Callable<Object>() {
+							@Override
+							public Object call() throws Exception {
+								started.countDown();
+								release.await();
+								return fn.call();
+							}
+						});
+					} catch (RuntimeException e) {
+						r = e;
+					}
+					synchronized (results) {
+						results.add(r);
+					}
+				}
+			};
+			t.start();
+			threads.add(t);
+			if (leader)
+				assertTrue(started.await(1, TimeUnit.SECONDS));
+		}
+		for (int i = 0; i < 100 && flight.getCoalesced() < WAITERS; i++)
+			Thread.sleep(10);
+		release.countDown();
+		for (Thread t : threads)
+			t.join(1000);
+		return results;
+	}
+
+	@Test
+	public void coalesce() throws Exception {
+		SingleFlight<String, Object> flight = new SingleFlight<String, Object>();
+		final Object value = new Object();
+		List<Object> results = runAll(flight, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return value;
+			}
+		});
+		assertEquals(WAITERS + 1, results.size());
+		for (Object r : results)
+			assertSame(value, r);
+		assertEquals(1, flight.getExecuted());
+		assertEquals(WAITERS, flight.getCoalesced());
+		// finished, next call runs again
+		assertEquals("again", flight.run("key", new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return "again";
+			}
+		}));
+		assertEquals(2, flight.getExecuted());
+	}
+
+	@Test
+	public void failure() throws Exception {
+		SingleFlight<String, Object> flight = new SingleFlight<String, Object>();
+		final IllegalStateException error = new IllegalStateException("failed");
+		List<Object> results = runAll(flight, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				throw error;
+			}
+		});
+		assertEquals(WAITERS + 1, results.size());
+		for (Object r : results)
+			assertSame(error, r);
+		assertEquals(1, flight.getExecuted());
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.kactech.otj.model.BasicUserAccount;
+
+public class SnapshotsTests {
+	static BasicUserAccount account() {
+		Utils.init();
+		return new BasicUserAccount().generate();
+	}
+
+	static EClient.State state() {
+		EClient.State state = new EClient.State();
+		state.assetType = "asset";
+		state.accountID = "acc";
+		state.transactionNums = LongSet.of(1, 2, 3, 10);
+		state.issuedNums = LongSet.of(1, 2, 3, 10, 20);
+		state.accounts = new LinkedHashMap<String, String>();
+		state.accounts.put("acc", "asset");
+		state.accounts.put("acc2", "asset2");
+		state.nymboxHandled = LongSet.of(5003, 5010);
+		state.generation = 12;
+		return state;
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		BasicUserAccount account = account();
+		EClient.State state = state();
+		Snapshots.Snapshot snap = Snapshots.read(ByteBuffer.wrap(Snapshots.write(account, state)));
+
+		assertEquals(account.getNymID(), snap.userAccount.getNymID());
+		assertEquals(account.getNymIDSource(), snap.userAccount.getNymIDSource());
+		assertEquals(account.getSources(), snap.userAccount.getSources());
+		assertEquals(account.getCsources(), snap.userAccount.getCsources());
+		assertKeys(account.getPairs(), snap.userAccount.getPairs());
+		assertKeys(account.getCpairs(), snap.userAccount.getCpairs());
+
+		assertEquals(state.assetType, snap.state.assetType);
+		assertEquals(state.accountID, snap.state.accountID);
+		assertEquals(state.transactionNums, snap.state.transactionNums);
+		assertEquals(state.issuedNums, snap.state.issuedNums);
+		assertEquals(state.accounts, snap.state.accounts);
+		assertEquals(state.nymboxHandled, snap.state.nymboxHandled);
+		assertEquals(state.generation, snap.state.generation);
+	}
+
+	static void assertKeys(Map<String, KeyPair> expected, Map<String, KeyPair> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (String name : expected.keySet()) {
+			assertEquals(expected.get(name).getPublic(), actual.get(name).getPublic());
+			assertEquals(expected.get(name).getPrivate(), actual.get(name).getPrivate());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void corrupted() throws Exception {
+		byte[] by = Snapshots.write(account(), state());
+		by[by.length / 2] ^= 1;
+		Snapshots.read(ByteBuffer.wrap(by));
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+public class StateJournalTests {
+	File file = new File(System.getProperty("java.io.tmpdir"), "journal" + System.nanoTime() + "/state.journal");
+
+	static EClient.State state(long generation) {
+		EClient.State state = new EClient.State();
+		state.transactionNums = LongSet.of(1, 2, 3);
+		state.issuedNums = LongSet.of(1, 2, 3);
+		state.nymboxHandled = new LongSet();
+		state.accounts = new LinkedHashMap<String, String>();
+		state.generation = generation;
+		return state;
+	}
+
+	// journal with two entries over state(7)
+	void write() throws Exception {
+		EClient.State state = state(7);
+		StateJournal journal = new StateJournal(file);
+		journal.open(state);
+		state.transactionNums.remove(1);
+		state.issuedNums.addRange(10, 12);
+		journal.record(state);
+		state.accountID = "acc";
+		state.accounts.put("acc", "asset");
+		journal.record(state);
+		journal.close();
+	}
+
+	EClient.State replay(long generation) throws Exception {
+		EClient.State state = state(generation);
+		StateJournal journal = new StateJournal(file);
+		journal.open(state);
+		journal.close();
+		return state;
+	}
+
+	@Test
+	public void replay() throws Exception {
+		write();
+		EClient.State state = replay(7);
+		assertEquals(LongSet.of(2, 3), state.transactionNums);
+		assertEquals(LongSet.of(1, 2, 3, 10, 11, 12), state.issuedNums);
+		assertEquals("acc", state.accountID);
+		assertEquals("asset", state.accounts.get("acc"));
+	}
+
+	@Test
+	public void tornTail() throws Exception {
+		write();
+		long length = file.length();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		// second entry without its end
+		raf.setLength(length - 3);
+		raf.close();
+		EClient.State state = replay(7);
+		assertEquals(LongSet.of(2, 3), state.transactionNums);
+		assertEquals(LongSet.of(1, 2, 3, 10, 11, 12), state.issuedNums);
+		assertNull(state.accountID);
+		assertTrue(state.accounts.isEmpty());
+		assertTrue(file.length() < length - 3);
+	}
+
+	@Test
+	public void crc() throws Exception {
+		write();
+		String text = Utils.read(file);
+		// first entry changed, its CRC doesn't match, nothing from it on is replayed
+		Utils.writeDirs(file, text.replace("T- 1", "T- 2"));
+		EClient.State state = replay(7);
+		assertEquals(LongSet.of(1, 2, 3), state.transactionNums);
+		assertEquals(LongSet.of(1, 2, 3), state.issuedNums);
+		assertNull(state.accountID);
+	}
+
+	@Test
+	public void generation() throws Exception {
+		write();
+		EClient.State state = replay(8);
+		assertEquals(LongSet.of(1, 2, 3), state.transactionNums);
+		assertNull(state.accountID);
+		assertTrue(new File(file.getPath() + ".stale").exists());
+		// new journal is started for generation 8
+		assertEquals(LongSet.of(1, 2, 3), replay(8).transactionNums);
+		assertFalse(Utils.read(file).contains("T-"));
+	}
+}
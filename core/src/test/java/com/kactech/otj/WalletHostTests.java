@@ -0,0 +1,169 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.kactech.otj.model.BasicConnectionInfo;
+
+public class WalletHostTests {
+	File root = new File(System.getProperty("java.io.tmpdir"), "host" + System.nanoTime());
+	WalletHost host = new WalletHost(root, new BasicConnectionInfo("server", null, "tcp://localhost:1"), 1, 4);
+
+	@After
+	public void close() throws Exception {
+		host.close();
+	}
+
+	// hosted without init, tasks don't touch the client
+	WalletHost.Tenant tenant(String name) {
+		WalletHost.Tenant t = host.new Tenant(name, new EClient(new File(root, name), null));
+		host.tenants.put(name, t);
+		return t;
+	}
+
+	static WalletHost.Task<Void> await(final CountDownLatch started, final CountDownLatch release) {
+		return new WalletHost.Task<Void>() {
+			@Override
+			public Void run(EClient client) throws Exception {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		};
+	}
+
+	@Test
+	public void ordering() throws Exception {
+		host.setMaxQueued(1000);
+		final List<Integer> done = new ArrayList<Integer>();
+		WalletHost.Tenant t = tenant("a");
+		Future<?> last = null;
+		for (int i = 0; i < 100; i++) {
+			final int n = i;
+			last = t.submit(new WalletHost.Task<Void>() {
+				@Override
+				public Void run(EClient client) throws Exception {
+					synchronized (done) {
+						done.add(n);
+					}
+					return null;
+				}
+			});
+		}
+		last.get(1, TimeUnit.SECONDS);
+		for (int i = 0; i < 100; i++)
+			assertEquals(Integer.valueOf(i), done.get(i));
+		assertEquals(100, t.getMetrics().getCompleted());
+		assertEquals(0, t.getQueued());
+	}
+
+	@Test
+	public void admission() throws Exception {
+		host.setMaxQueued(2);
+		WalletHost.Tenant t = tenant("a");
+		CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		t.submit(await(started, release));
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		t.submit(await(new CountDownLatch(1), release));
+		t.submit(await(new CountDownLatch(1), release));
+		try {
+			t.submit(await(new CountDownLatch(1), release));
+			fail("mailbox is full");
+		} catch (RejectedExecutionException e) {
+		}
+		assertEquals(1, t.getMetrics().getRejected());
+		Future<Void> closing = t.close();
+		assertEquals(3, t.getQueued());
+		release.countDown();
+		closing.get(1, TimeUnit.SECONDS);
+		assertEquals(0, t.getQueued());
+	}
+
+	@Test
+	public void closeWhileBusy() throws Exception {
+		WalletHost.Tenant t = tenant("a");
+		CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+		t.submit(await(started, release));
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		Future<Void> closing = host.remove("a");
+		assertSame(closing, t.close());
+		assertTrue(t.isClosed());
+		// hosted until its client is closed
+		assertSame(t, host.get("a"));
+		try {
+			t.submit(await(new CountDownLatch(1), release));
+			fail("tenant is closed");
+		} catch (RejectedExecutionException e) {
+		}
+		assertFalse(closing.isDone());
+		release.countDown();
+		closing.get(1, TimeUnit.SECONDS);
+		assertNull(host.get("a"));
+		assertEquals(0, t.getQueued());
+	}
+}
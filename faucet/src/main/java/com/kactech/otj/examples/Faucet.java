@@ -72,9 +72,12 @@ import org.pircbotx.hooks.ListenerAdapter;
 import org.pircbotx.hooks.events.JoinEvent;
 import org.pircbotx.hooks.events.MessageEvent;
 
+import com.kactech.otj.BufferedPublisher;
 import com.kactech.otj.EClient;
+import com.kactech.otj.LedgerMirror;
 import com.kactech.otj.MSG;
 import com.kactech.otj.OT;
+import com.kactech.otj.PollScheduler;
 import com.kactech.otj.Utils;
 
 public class Faucet {
@@ -88,13 +91,14 @@ public class Faucet {
 		EClient client;
 		boolean joined;
 		Timer timer = new Timer();
+		PollScheduler poller = new PollScheduler();
 		UserMessagesFilter messageFilter = new UserMessagesFilter();
 
 		public IrcListener(PircBotX bot, EClient client) {
 			super();
 			this.bot = bot;
 			this.client = client;
-			this.client.getClient().addFilter(messageFilter, MSG.GetNymboxResp.class, 0);
+			this.client.getClient().addHook(messageFilter, MSG.GetNymboxResp.class);
 		}
 
 		@Override
@@ -113,9 +117,7 @@ public class Faucet {
 						prefix + "ASSET: "
 								+ acc.getAssetTypeID() + " "
 								+ ExamplesUtils.getContractURI(acc.getAssetTypeID()));
-				bot.sendMessage(event.getChannel(), prefix + "BALANCE: "
-						+ acc.getBalance().getAmount()
-						+ " AT " + DF.format(new Date(acc.getBalance().getDate() * 1000)));
+				bot.sendMessage(event.getChannel(), prefix + balance(acc.getAccountID()));
 				bot.sendMessage(event.getChannel(), prefix + "mail your ACCOUNT_ID to NYM "
 						+ client.getClient().getUserAccount().getNymID() + " for free asset units "
 						+ "http://qrfree.kaywa.com/?l=1&s=8&d=" + client.getClient().getUserAccount().getNymID());
@@ -132,51 +134,31 @@ public class Faucet {
 			System.out.println("JOIN " + event);
 			joined = true;
 			final Channel chan = event.getChannel();
-			synchronized (client) {
-				client.getAccount();
-			}
-			timer.scheduleAtFixedRate(new TimerTask() {
+			messageFilter.getPublisher().subscribe(new BufferedPublisher.Consumer<UserMessagesFilter.UserMessage>() {
+				@Override
+				public void accept(UserMessagesFilter.UserMessage msg) {
+					mail(chan, msg);
+				}
+			});
+			client.getAccount();
+			poller.addListener(new PollScheduler.Listener() {
+				@Override
+				public void nymboxChanged(EClient c, String nymboxHash) {
+					process(chan);
+				}
 
 				@Override
-				public void run() {
-					synchronized (client) {
-						try {
-							client.processInbox();
-							for (UserMessagesFilter.UserMessage msg : messageFilter.getAndClearMessages()) {
-								String s = msg.text;
-								s = s.replace("Subject:", "").trim();
-								if (!mayBeValid(s)) {
-									bot.sendMessage(chan, "mail from " + substr(msg.from, 5)
-											+ " ERROR: invalid ACCOUNT_ID: " + substr(s, 5));
-								} else {
-									long amount = 100;
-									if (client.getCachedAccount().getBalance().getAmount() < amount) {
-										bot.sendMessage(chan, "insufficient funds for trasfrer " + amount
-												+ " to account " + substr(s, 5));
-									} else {
-										boolean sent = client.notarizeTransaction(s, amount);
-										if (sent)
-											bot.sendMessage(chan, "sent " + amount + " to account " + substr(s, 5));
-										else
-											bot.sendMessage(chan, "not sent to account '" + substr(s, 5)
-													+ "' due to error");
-									}
-								}
-								client.getAccount();
-							}
-							//client.notarizeTransaction(100, amount);
-						} catch (Exception ex) {
-							ex.printStackTrace();
-						}
-					}
+				public void inboxChanged(EClient c, OT.Account account) {
+					process(chan);
 				}
-			}, 1000 * 10, 1000 * 60);
+			});
+			poller.watch(client);
 			timer.scheduleAtFixedRate(new TimerTask() {
 				@Override
 				public void run() {
 					// synchronization not needed
 					try {
-						showBalance(chan, client.getCachedAccount());
+						showBalance(chan);
 					} catch (Exception e) {
 						e.printStackTrace();
 					}
@@ -185,10 +167,55 @@ public class Faucet {
 			}, 1000 * 60, 1000 * 60 * 60);
 		}
 
-		void showBalance(Channel chan, OT.Account acc) {
-			bot.sendMessage(chan, "BALANCE: "
-					+ acc.getBalance().getAmount()
-					+ " AT " + DF.format(new Date(acc.getBalance().getDate() * 1000)));
+		synchronized void process(Channel chan) {
+			try {
+				client.processInbox();
+				//client.notarizeTransaction(100, amount);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		// mails come one by one from nymbox hook
+		void mail(Channel chan, UserMessagesFilter.UserMessage msg) {
+			try {
+				String s = msg.text;
+				s = s.replace("Subject:", "").trim();
+				if (!mayBeValid(s)) {
+					bot.sendMessage(chan, "mail from " + substr(msg.from, 5)
+							+ " ERROR: invalid ACCOUNT_ID: " + substr(s, 5));
+				} else {
+					long amount = 100;
+					Long balance = client.getBalance();
+					if (balance == null || balance < amount) {
+						bot.sendMessage(chan, "insufficient funds for trasfrer " + amount
+								+ " to account " + substr(s, 5));
+					} else {
+						boolean sent = client.notarizeTransaction(s, amount);
+						if (sent) {
+							bot.sendMessage(chan, "sent " + amount + " to account " + substr(s, 5));
+							poller.activity(client);
+						} else
+							bot.sendMessage(chan, "not sent to account '" + substr(s, 5)
+									+ "' due to error");
+					}
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+
+		void showBalance(Channel chan) {
+			bot.sendMessage(chan, balance(client.getAccountID()));
+		}
+
+		String balance(String accountID) {
+			LedgerMirror.Entry acc = client.getMirror().get(accountID);
+			if (acc == null || acc.getBalance() == null)
+				return "BALANCE: not known yet";
+			if (acc.getBalanceDate() == null)
+				return "BALANCE: " + acc.getBalance();
+			return "BALANCE: " + acc.getBalance() + " AT " + DF.format(new Date(acc.getBalanceDate() * 1000));
 		}
 
 		String substr(String s, int len) {
@@ -200,6 +227,7 @@ public class Faucet {
 		@Override
 		public void close() throws IOException {
 			timer.cancel();
+			poller.close();
 		}
 	}
 
@@ -52,16 +52,12 @@ package com.kactech.otj.examples;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.script.Compilable;
-import javax.script.CompiledScript;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.GnuParser;
@@ -105,6 +101,22 @@ public class App_otj {
 		hf.printHelp("otj [-h | (<options>) <command> (--args <args>)]", options);
 	}
 
+	/**
+	 * filters/&lt;name&gt;.js or bundled example filter, null when none found
+	 */
+	public static ScriptFilter loadFilter(String name) throws Exception {
+		name += ".js";
+		Reader r = null;
+		try {
+			r = new InputStreamReader(new FileInputStream(new File("filters", name)), Utils.UTF8);
+		} catch (Exception e) {
+			InputStream in = App_otj.class.getResourceAsStream("/com/kactech/otj/examples/filters/" + name);
+			if (in != null)
+				r = new InputStreamReader(in, Utils.UTF8);
+		}
+		return r == null ? null : ScriptFilter.load("JavaScript", r);
+	}
+
 	@SuppressWarnings("unchecked")
 	public static void main(String[] args) throws Exception {
 		String command = null;
@@ -244,37 +256,21 @@ public class App_otj {
 
 		if (cmd.hasOption('f')) {
 			filters = new ArrayList<ScriptFilter>();
-			ScriptEngineManager manager = new ScriptEngineManager();
-			ScriptEngine engine = manager.getEngineByName("JavaScript");
-			Compilable compilingEngine = (Compilable) engine;
 			for (String fn : cmd.getOptionValue('f').split(",")) {
 				fn = fn.trim();
 				if (fn.isEmpty())
 					continue;
-				fn += ".js";
-				Reader r = null;
 				try {
-					r = new InputStreamReader(new FileInputStream(new File("filters", fn)), Utils.UTF8);
-				} catch (Exception e) {
-					try {
-						r = new InputStreamReader(
-								App_otj.class.getResourceAsStream("/com/kactech/otj/examples/filters/"
-										+ fn));
-					} catch (Exception e2) {
-					}
-				}
-				if (r == null) {
-					System.err.println("filter not found: " + fn);
-					System.exit(-1);
-				} else
-					try {
-						CompiledScript compiled = compilingEngine.compile(r);
-						ScriptFilter sf = new ScriptFilter(compiled);
-						filters.add(sf);
-					} catch (Exception ex) {
-						System.err.println("error while loading " + fn + ": " + ex);
+					ScriptFilter sf = loadFilter(fn);
+					if (sf == null) {
+						System.err.println("filter not found: " + fn + ".js");
 						System.exit(-1);
 					}
+					filters.add(sf);
+				} catch (Exception ex) {
+					System.err.println("error while loading " + fn + ".js: " + ex);
+					System.exit(-1);
+				}
 			}
 		}
 
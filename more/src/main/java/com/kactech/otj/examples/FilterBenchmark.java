@@ -0,0 +1,163 @@
+/*******************************************************************************
+ *              OTj
+ * Low-level client-side library for Open Transactions in Java
+ * 
+ * Copyright (C) 2013 by Piotr Kopeć (kactech)
+ * 
+ * EMAIL: pepe.kopec@gmail.com
+ * 
+ * BITCOIN: 1ESADvST7ubsFce7aEi2B6c6E2tYd4mHQp
+ * 
+ * OFFICIAL PROJECT PAGE: https://github.com/kactech/OTj
+ * 
+ * -------------------------------------------------------
+ * 
+ * LICENSE:
+ * This program is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU Affero
+ * General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * ADDITIONAL PERMISSION under the GNU Affero GPL version 3
+ * section 7: If you modify this Program, or
+ * any covered work, by linking or combining it with other
+ * code, such other code is not for that reason alone subject
+ * to any of the requirements of the GNU Affero GPL version 3.
+ * (==> This means if you are only using the OTj, then you
+ * don't have to open-source your code--only your changes to
+ * OTj itself must be open source. Similar to
+ * LGPLv3, except it applies to software-as-a-service, not
+ * just to distributing binaries.)
+ * Anyone using my library is given additional permission
+ * to link their software with any BSD-licensed code.
+ * 
+ * -----------------------------------------------------
+ * 
+ * You should have received a copy of the GNU Affero General
+ * Public License along with this program. If not, see:
+ * http://www.gnu.org/licenses/
+ * 
+ * If you would like to use this software outside of the free
+ * software license, please contact Piotr Kopeć.
+ * 
+ * DISCLAIMER:
+ * This program is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the GNU Affero General Public License for
+ * more details.
+ ******************************************************************************/
+package com.kactech.otj.examples;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.kactech.otj.Client;
+import com.kactech.otj.MSG;
+import com.kactech.otj.Utils;
+import com.kactech.otj.script.ScriptFilter;
+
+/**
+ * Measures filter overhead per message: client without filters against client with otj script filters loaded,
+ * single thread and on all threads at once. Filters' output is discarded.
+ * 
+ * <pre>
+ * FilterBenchmark [filters(echo,local_echo)] [messages(100000)] [threads(cores)]
+ * </pre>
+ */
+public class FilterBenchmark {
+	static class BenchClient extends Client {
+		public BenchClient() {
+			super(null, "benchmark", null, null);
+		}
+
+		Object run(Object o) {
+			return filter(o);
+		}
+	}
+
+	static Object[] sample() {
+		return new Object[] { new MSG.GetRequest(), new MSG.GetNymbox(), new MSG.GetNymboxResp(),
+				new MSG.GetInboxResp(), new MSG.GetAccountResp() };
+	}
+
+	static long run(BenchClient client, Object[] msgs, int count) {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			client.run(msgs[i % msgs.length]);
+		return System.nanoTime() - start;
+	}
+
+	static long runParallel(final BenchClient client, final int count, int threads) throws Exception {
+		ExecutorService ex = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> fl = new ArrayList<Future<Long>>();
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++)
+				fl.add(ex.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return run(client, sample(), count);
+					}
+				}));
+			for (Future<Long> f : fl)
+				f.get();
+			return System.nanoTime() - start;
+		} finally {
+			ex.shutdown();
+		}
+	}
+
+	static void report(PrintStream out, String name, BenchClient client, int count, int threads) throws Exception {
+		run(client, sample(), count / 10);// warm up
+		long single = run(client, sample(), count);
+		long parallel = runParallel(client, count, threads);
+		out.printf("%-12s %8.1f ns/msg single, %8.1f ns/msg on %d threads%n", name, (double) single / count,
+				(double) parallel / count / threads, threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String names = args.length > 0 ? args[0] : "echo,local_echo";
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Utils.init();
+
+		// scripts print to System.out of their creation time
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			BenchClient client = new BenchClient();
+			report(out, "no filters", client, count, threads);
+			for (String fn : names.split(",")) {
+				fn = fn.trim();
+				if (fn.isEmpty())
+					continue;
+				ScriptFilter sf = App_otj.loadFilter(fn);
+				if (sf == null) {
+					System.err.println("filter not found: " + fn + ".js");
+					System.exit(-1);
+				}
+				client.addFilter(sf, sf.getType(), sf.getPriority() == null ? 0 : sf.getPriority());
+				out.println("loaded " + fn + " for " + sf.getType().getSimpleName() + ", pool " + sf.getPoolSize());
+			}
+			report(out, "filters", client, count, threads);
+		} finally {
+			System.setOut(out);
+		}
+	}
+}
@@ -76,6 +76,7 @@ import javax.swing.event.DocumentListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.kactech.otj.BufferedPublisher;
 import com.kactech.otj.Client;
 import com.kactech.otj.EClient;
 import com.kactech.otj.MSG;
@@ -217,7 +218,14 @@ public class OTjAlpha extends JPanel implements ActionListener {
 			public void run() {
 				try {
 					client.init();
-					client.getClient().addFilter(messageFilter, GetNymboxResp.class, 0);
+					messageFilter.getPublisher().subscribe(
+							new BufferedPublisher.Consumer<UserMessagesFilter.UserMessage>() {
+								@Override
+								public void accept(UserMessagesFilter.UserMessage msg) {
+									logger.info("*****\nmail from {}\n{}\n*****", msg.from, msg.text);
+								}
+							});
+					client.getClient().addHook(messageFilter, GetNymboxResp.class);
 					Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 						@Override
 						public void run() {
@@ -270,8 +278,6 @@ public class OTjAlpha extends JPanel implements ActionListener {
 			balance.setText(acc.getBalance().getAmount().toString());
 			nymID.setText(client.getClient().getUserAccount().getNymID());
 			accountID.setText(acc.getAccountID());
-			for (UserMessagesFilter.UserMessage msg : messageFilter.getAndClearMessages())
-				logger.info("*****\nmail from {}\n{}\n*****", msg.from, msg.text);
 		} else if (src == send) {
 			logger.info("send");
 			Long amount = Long.parseLong(this.amount.getText().trim());